@@ -1,42 +1,170 @@
 package com.clearner;
 
+import com.clearner.controllers.ChannelController;
+import com.clearner.controllers.ContentEventsController;
+import com.clearner.controllers.HealthController;
+import com.clearner.controllers.MetricsController;
+import com.clearner.integrations.FileNotificationProvider;
+import com.clearner.integrations.HttpNotificationProvider;
+import com.clearner.integrations.HttpRemoteSyncClient;
+import com.clearner.metrics.MetricsRegistry;
+import com.clearner.models.CheckRequest;
+import com.clearner.models.LoginRequest;
+import com.clearner.models.PasteRequest;
+import com.clearner.models.ProgressRequest;
+import com.clearner.models.StepEventRequest;
+import com.clearner.models.User;
+import com.clearner.services.AnalyticsService;
 import com.clearner.services.ContentService;
+import com.clearner.services.ContentWatcher;
 import com.clearner.services.DatabaseService;
+import com.clearner.services.LessonCache;
+import com.clearner.services.LessonService;
+import com.clearner.services.NotificationService;
 import com.clearner.services.PersistenceService;
+import com.clearner.services.RetentionService;
+import com.clearner.services.ShardedStorage;
+import com.clearner.services.SyncService;
+import com.clearner.services.TransferService;
 import com.clearner.services.UserService;
+import com.clearner.storage.Database;
+import com.clearner.validation.CheckResult;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class Main {
     public static void main(String[] args) {
-        DatabaseService databaseService = new DatabaseService();
-        ContentService contentService = new ContentService();
-        PersistenceService persistenceService = new PersistenceService(databaseService);
+        StartupTimer startup = new StartupTimer();
+        // Opening SQLite (native library, migrations) and indexing lessons share nothing, so they overlap.
+        // -Dclearner.shards=N keeps users in data/clearner.db and spreads learner data over N files
+        int shards = Integer.getInteger("clearner.shards", 1);
+        Path shardDir = Path.of(System.getProperty("clearner.shards.dir", "data/shards"));
+        CompletableFuture<ShardedStorage> database = CompletableFuture.supplyAsync(
+                () -> startup.time("database", () -> new ShardedStorage(Database.DEFAULT_PATH, shardDir, shards)));
+
+        // Content mode: serve and hot-reload lessons from a directory, e.g.
+        // -Dclearner.content.dir=backend/src/main/resources/content
+        String contentDir = System.getProperty("clearner.content.dir");
+        ContentService contentService = startup.time("content index", () -> contentDir != null
+                ? new ContentService(Path.of(contentDir))
+                : new ContentService());
+        ContentWatcher contentWatcher = null;
+        if (contentDir != null) {
+            try {
+                contentWatcher = new ContentWatcher(contentService);
+                System.out.println("Watching lesson content in " + contentService.getContentDir().toAbsolutePath());
+            } catch (IOException e) {
+                System.err.println("Content reload disabled, cannot watch " + contentDir + ": " + e.getMessage());
+            }
+        }
+        ContentEventsController contentEvents = new ContentEventsController(contentService);
+
+        // -Dclearner.threads=virtual serves requests on virtual threads and moves JDBC onto platform threads
+        boolean virtualThreads = "virtual".equalsIgnoreCase(System.getProperty("clearner.threads", "platform"));
+        MetricsRegistry metrics = new MetricsRegistry();
+        Javalin app = startup.time("http server", () -> createApp(metrics, virtualThreads));
+
+        ShardedStorage storage;
+        try {
+            storage = database.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        DatabaseService databaseService = storage.directory();
+        long servicesStart = System.nanoTime();
+        PersistenceService persistenceService = new PersistenceService(storage);
         UserService userService = new UserService(databaseService);
+        LessonService lessonService = startup.time("task matchers",
+                () -> new LessonService(contentService, persistenceService));
+        AnalyticsService analyticsService = new AnalyticsService(storage,
+                Long.getLong("clearner.analytics.intervalMs", 10_000));
+        // Synced events and finished notifications older than this are archived to data/archive
+        RetentionService retentionService = new RetentionService(storage,
+                Integer.getInteger("clearner.retention.days", 90),
+                Path.of(System.getProperty("clearner.archive.dir", "data/archive")),
+                Long.getLong("clearner.retention.intervalMs", 3_600_000),
+                Boolean.getBoolean("clearner.retention.convertVacuum"));
+        TransferService transferService = new TransferService(storage);
+        transferService.addUserListener(userService::invalidate);
 
-        Javalin app = Javalin.create(config -> {
-            config.bundledPlugins.enableCors(cors -> {
-                cors.addRule(it -> {
-                    it.anyHost();
-                });
-            });
-        }).start(8080);
+        // Sync stays off unless a remote is configured, e.g. -Dclearner.sync.url=https://sync.example.org
+        String syncUrl = System.getProperty("clearner.sync.url");
+        SyncService syncService = new SyncService(storage,
+                syncUrl != null ? new HttpRemoteSyncClient(syncUrl) : null,
+                Long.getLong("clearner.sync.intervalMs", 30_000));
+        syncService.addUserListener(userService::invalidate);
+        ChannelController channel = new ChannelController(persistenceService, syncService, contentService);
+        syncService.start();
+
+        // Notifications go nowhere unless a provider is configured, e.g. -Dclearner.notify.webhook=https://hooks.example.org/clearner
+        NotificationService notificationService = new NotificationService(databaseService,
+                Long.getLong("clearner.notify.intervalMs", 1000));
+        double notifyRate = Double.parseDouble(System.getProperty("clearner.notify.ratePerSecond", "10"));
+        String webhookUrl = System.getProperty("clearner.notify.webhook");
+        if (webhookUrl != null) {
+            notificationService.register(new HttpNotificationProvider("webhook", webhookUrl), notifyRate);
+        }
+        String notifyFile = System.getProperty("clearner.notify.file");
+        if (notifyFile != null) {
+            notificationService.register(new FileNotificationProvider("file", Path.of(notifyFile)), notifyRate);
+        }
+        persistenceService.addCompletionListener(notificationService::lessonCompleted);
+        // Open tabs of the learner hear about it right away, without waiting for a dispatch pass
+        persistenceService.addCompletionListener(request -> channel.sendToUser(request.userId(), "notification",
+                Map.of("type", "lesson-completed", "lessonId", request.lessonId())));
+        notificationService.start();
+
+        ContentWatcher watcher = contentWatcher;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (watcher != null) {
+                watcher.close();
+            }
+            retentionService.close();
+            syncService.close();
+            persistenceService.close();
+            notificationService.close();
+            analyticsService.close();
+            userService.close();
+            storage.close();
+        }, "shutdown"));
+
+        if (virtualThreads) {
+            for (DatabaseService db : storage.all()) {
+                db.getDatabase().enableOffload();
+            }
+        }
+
+        MetricsController metricsController = new MetricsController(metrics, databaseService, contentService,
+                persistenceService, syncService);
+        startup.record("services", (System.nanoTime() - servicesStart) / 1_000_000);
+
+        app.exception(JsonProcessingException.class, (e, ctx) -> ctx.status(400).result("Invalid JSON"));
 
         app.get("/", ctx -> ctx.result("Clearner Backend Running"));
+        app.get("/api/health", HealthController::check);
+        app.get("/api/metrics", metricsController::json);
+        app.get("/api/metrics/prometheus", metricsController::prometheus);
 
         app.post("/api/auth/login", ctx -> {
-            String body = ctx.body();
-            com.fasterxml.jackson.databind.JsonNode node = new com.fasterxml.jackson.databind.ObjectMapper()
-                    .readTree(body);
-            String displayName = node.get("displayName").asText();
-
-            if (displayName == null) {
+            LoginRequest request = ctx.bodyStreamAsClass(LoginRequest.class);
+            if (request == null || request.displayName() == null) {
                 ctx.status(400).result("Missing display name");
                 return;
             }
 
-            String userJson = userService.login(displayName);
-            if (userJson != null) {
-                ctx.contentType("application/json").result(userJson);
+            User user = userService.login(request.displayName());
+            if (user != null) {
+                ctx.json(user);
             } else {
                 ctx.status(500).result("Login failed");
             }
@@ -45,33 +173,189 @@ public class Main {
         app.get("/api/lessons/{course}/{id}", ctx -> {
             String course = ctx.pathParam("course");
             String id = ctx.pathParam("id");
-            String json = contentService.getLesson(course, id);
-            if (json != null) {
-                ctx.contentType("application/json").result(json);
-            } else {
+            LessonCache.Entry lesson = contentService.getCachedLesson(course, id);
+            if (lesson == null) {
                 ctx.status(404).result("Lesson not found");
+                return;
+            }
+
+            sendCached(ctx, lesson);
+        });
+
+        app.post("/api/lessons/{course}/{id}/steps/{step}/check", ctx -> {
+            CheckRequest request = ctx.bodyStreamAsClass(CheckRequest.class);
+            if (request == null || !request.isValid()) {
+                ctx.status(400).result("Missing code");
+                return;
+            }
+            CheckResult result = lessonService.check(ctx.pathParam("course"), ctx.pathParam("id"),
+                    ctx.pathParam("step"), request);
+            if (result == null) {
+                ctx.status(404).result("Task not found");
+                return;
+            }
+            ctx.json(result);
+        });
+
+        app.get("/api/lessons", ctx -> sendCached(ctx, contentService.getIndex().getCatalog()));
+
+        app.sse("/api/content/events", contentEvents::connect);
+
+        app.ws("/ws", channel::configure);
+
+        app.get("/api/courses/{course}", ctx -> {
+            LessonCache.Entry course = contentService.getIndex().getCourse(ctx.pathParam("course"));
+            if (course == null) {
+                ctx.status(404).result("Course not found");
+                return;
             }
+            sendCached(ctx, course);
         });
 
         app.post("/api/progress", ctx -> {
-            String body = ctx.body();
-            if (persistenceService.saveProgress(body)) {
+            ProgressRequest request = ctx.bodyStreamAsClass(ProgressRequest.class);
+            if (persistenceService.saveProgress(request)) {
                 ctx.status(200).result("Progress saved");
             } else {
-                ctx.status(500).result("Failed to save progress");
+                ctx.status(400).result("Failed to save progress");
             }
         });
 
+        app.get("/api/stats/progress", ctx -> ctx.json(persistenceService.getProgressBufferStats()));
+
         app.get("/api/progress/{userId}", ctx -> {
             String userId = ctx.pathParam("userId");
-            String progressJson = persistenceService.getProgress(userId);
-            ctx.contentType("application/json").result(progressJson);
+            ctx.contentType("application/json").result(persistenceService.getProgressJson(userId));
         });
 
         app.post("/api/log/paste", ctx -> {
-            String body = ctx.body();
-            persistenceService.logPaste(body);
-            ctx.status(200).result("Log saved");
+            PasteRequest request = ctx.bodyStreamAsClass(PasteRequest.class);
+            switch (persistenceService.logPaste(request)) {
+                case ACCEPTED -> ctx.status(200).result("Log saved");
+                case INVALID -> ctx.status(400).result("Invalid paste data");
+                case QUEUE_FULL -> ctx.status(429).header("Retry-After", "1").result("Event queue full");
+            }
+        });
+
+        app.post("/api/events", ctx -> {
+            StepEventRequest[] events = ctx.bodyStreamAsClass(StepEventRequest[].class);
+            switch (persistenceService.logEvents(events != null ? Arrays.asList(events) : null)) {
+                case ACCEPTED -> ctx.status(202).result("Events queued");
+                case INVALID -> ctx.status(400).result("Invalid events");
+                case QUEUE_FULL -> ctx.status(429).header("Retry-After", "1").result("Event queue full");
+            }
+        });
+
+        app.get("/api/sync/status", ctx -> ctx.json(syncService.getStatus()));
+
+        app.get("/api/stats/events", ctx -> ctx.json(persistenceService.getEventStats()));
+
+        app.get("/api/stats/rollup", ctx -> ctx.json(analyticsService.getStats()));
+
+        app.get("/api/stats/retention", ctx -> ctx.json(retentionService.getStats()));
+
+        app.get("/api/stats/notifications", ctx -> ctx.json(notificationService.getStats()));
+
+        app.get("/api/analytics/lessons/{id}", ctx ->
+                ctx.json(analyticsService.getLessonStats(ctx.pathParam("id"))));
+
+        // Streams straight to the response; nothing is buffered beyond one page of rows
+        app.get("/api/export", ctx -> {
+            ctx.contentType("application/gzip");
+            ctx.header("Content-Disposition", "attachment; filename=\"clearner-export.ndjson.gz\"");
+            transferService.export(ctx.res().getOutputStream());
+        });
+
+        app.post("/api/import", ctx -> {
+            try {
+                ctx.json(transferService.importFrom(ctx.bodyInputStream()));
+            } catch (IOException e) {
+                ctx.status(400).result("Invalid import: " + e.getMessage());
+            }
+        });
+
+        // Routes are in place before the port opens, so the first request never sees a 404
+        startup.time("listen", () -> app.start(Integer.getInteger("clearner.port", 8080)));
+        startup.log();
+
+        // The fast-start build runs this once to record which classes to put in the CDS archive
+        if (Boolean.getBoolean("clearner.training")) {
+            Training.run(app.port());
+            System.exit(0);
+        }
+    }
+
+    private static Javalin createApp(MetricsRegistry metrics, boolean virtualThreads) {
+        return Javalin.create(config -> {
+            config.useVirtualThreads = virtualThreads;
+            config.jsonMapper(new JavalinJackson(Json.MAPPER, virtualThreads));
+            // Clients ping every 30 s; anything silent for longer has gone away
+            config.jetty.modifyWebSocketServletFactory(ws -> ws.setIdleTimeout(Duration.ofMinutes(2)));
+            config.requestLogger.http((ctx, executionTimeMs) -> {
+                // Requests that matched no route share one series so arbitrary URLs cannot grow the registry
+                String route = ctx.endpointHandlerPath().startsWith("/") ? ctx.endpointHandlerPath() : "unmatched";
+                metrics.record(ctx.method().name(), route, ctx.statusCode(), (long) (executionTimeMs * 1_000_000));
+            });
+            config.bundledPlugins.enableCors(cors -> {
+                cors.addRule(it -> {
+                    it.anyHost();
+                });
+            });
         });
     }
+
+    /**
+     * Send precomputed JSON with its ETag, answering 304 on a match and
+     * using the gzip copy when the client accepts it.
+     */
+    private static void sendCached(Context ctx, LessonCache.Entry entry) {
+        boolean gzip = acceptsGzip(ctx.header("Accept-Encoding"));
+        ctx.header("ETag", entry.etag(gzip));
+        ctx.header("Cache-Control", "no-cache");
+        ctx.header("Vary", "Accept-Encoding");
+        if (entry.matches(ctx.header("If-None-Match"), gzip)) {
+            ctx.status(304);
+            return;
+        }
+
+        ctx.contentType("application/json");
+        if (gzip) {
+            ctx.header("Content-Encoding", "gzip").result(entry.gzip());
+        } else {
+            ctx.result(entry.json());
+        }
+    }
+
+    /**
+     * True if the Accept-Encoding header allows gzip: listed with a q-value
+     * above zero, or not listed but covered by a "*" above zero.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
 }
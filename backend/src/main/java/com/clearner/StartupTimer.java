@@ -0,0 +1,57 @@
+package com.clearner;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Records how long each startup phase takes and logs the breakdown once
+ * the server is listening. The first line covers the JVM itself, from
+ * process start to entering main.
+ */
+public final class StartupTimer {
+
+    private record Phase(String name, long millis, String thread) {}
+
+    // ProcessHandle rather than the RuntimeMXBean, which would load java.management just for this
+    private final long jvmStart = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli)
+            .orElse(System.currentTimeMillis());
+    private final long mainStart = System.currentTimeMillis();
+    private final List<Phase> phases = new ArrayList<>();
+
+    /**
+     * Run a startup step and record its duration under name.
+     */
+    public <T> T time(String name, Supplier<T> step) {
+        long start = System.nanoTime();
+        T result = step.get();
+        record(name, (System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+
+    /**
+     * Record a phase that was timed by the caller.
+     */
+    public synchronized void record(String name, long millis) {
+        phases.add(new Phase(name, millis, Thread.currentThread().getName()));
+    }
+
+    /**
+     * Log the breakdown. Phases on other threads overlap the main thread,
+     * so they are marked and do not add up to the total.
+     */
+    public synchronized void log() {
+        long now = System.currentTimeMillis();
+        StringBuilder out = new StringBuilder("Started in ").append(now - jvmStart).append(" ms");
+        out.append(String.format("%n  %-24s %6d ms", "jvm", mainStart - jvmStart));
+        for (Phase phase : phases) {
+            out.append(String.format("%n  %-24s %6d ms", phase.name(), phase.millis()));
+            if (!phase.thread().equals("main")) {
+                out.append(" (").append(phase.thread()).append(')');
+            }
+        }
+        System.out.println(out);
+    }
+}
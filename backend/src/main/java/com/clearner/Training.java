@@ -0,0 +1,59 @@
+package com.clearner;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * The training run behind the fast-start build. It walks one learner
+ * through the usual requests so the classes they load, not just the ones
+ * startup loads, end up in the class-data-sharing archive.
+ */
+final class Training {
+
+    private Training() {}
+
+    static void run(int port) {
+        String base = "http://localhost:" + port;
+        HttpClient http = HttpClient.newHttpClient();
+        try {
+            String user = send(http, post(base + "/api/auth/login", "{\"displayName\":\"cds-training\"}"));
+            String userId = Json.MAPPER.readTree(user).path("id").asText();
+            String catalog = send(http, get(base + "/api/lessons"));
+            for (var lesson : Json.MAPPER.readTree(catalog)) {
+                String course = lesson.path("course").asText();
+                String slug = lesson.path("slug").asText();
+                send(http, get(base + "/api/lessons/" + course + "/" + slug));
+                send(http, post(base + "/api/lessons/" + course + "/" + slug + "/steps/0/check",
+                        "{\"userId\":\"" + userId + "\",\"code\":\"<p>hello</p>\"}"));
+                send(http, post(base + "/api/progress", "{\"userId\":\"" + userId + "\",\"lessonId\":\""
+                        + lesson.path("id").asText() + "\",\"currentStep\":1,\"completed\":false}"));
+                break;
+            }
+            send(http, post(base + "/api/log/paste", "{\"userId\":\"" + userId
+                    + "\",\"lessonId\":\"training\",\"stepIndex\":0,\"content\":\"x\"}"));
+            send(http, get(base + "/api/progress/" + userId));
+            send(http, get(base + "/api/metrics"));
+            System.out.println("Training run finished");
+        } catch (Exception e) {
+            // A partial run still yields a usable archive
+            System.err.println("Training run failed: " + e.getMessage());
+        }
+    }
+
+    private static String send(HttpClient http, HttpRequest request) throws Exception {
+        return http.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).GET().build();
+    }
+
+    private static HttpRequest post(String url, String json) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+}
@@ -0,0 +1,176 @@
+package com.clearner.controllers;
+
+import com.clearner.Json;
+import com.clearner.models.ChannelMessage;
+import com.clearner.models.PasteRequest;
+import com.clearner.models.ProgressRequest;
+import com.clearner.models.StepEventRequest;
+import com.clearner.services.ContentService;
+import com.clearner.services.EventIngestService;
+import com.clearner.services.PersistenceService;
+import com.clearner.services.SyncService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.javalin.websocket.WsConfig;
+import io.javalin.websocket.WsContext;
+import io.javalin.websocket.WsMessageContext;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Long-lived WebSocket channel (/ws?userId=...).
+ * Clients stream progress, paste and step-event frames over one connection;
+ * they go into the same write-behind buffers as the REST routes and each
+ * frame is answered with a small ack or nack. The server pushes sync status
+ * changes, lesson reloads and lesson-completed notifications back down the
+ * same socket.
+ */
+public class ChannelController {
+
+    private record Client(WsContext ctx, String userId) {}
+
+    private final PersistenceService persistence;
+    private final SyncService sync;
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+
+    public ChannelController(PersistenceService persistence, SyncService sync, ContentService content) {
+        this.persistence = persistence;
+        this.sync = sync;
+        sync.addListener(status -> broadcast(push("sync", status)));
+        content.addListener(change -> broadcast(push("lesson-changed", change)));
+    }
+
+    public void configure(WsConfig ws) {
+        ws.onConnect(ctx -> {
+            clients.put(ctx.sessionId(), new Client(ctx, ctx.queryParam("userId")));
+            send(ctx, push("sync", sync.getStatus()));
+        });
+        ws.onMessage(this::handle);
+        ws.onClose(ctx -> clients.remove(ctx.sessionId()));
+        ws.onError(ctx -> clients.remove(ctx.sessionId()));
+    }
+
+    /**
+     * Push a message to every open connection of one user.
+     * Returns false if the user has no open connection.
+     */
+    public boolean sendToUser(String userId, String type, Object data) {
+        String frame = push(type, data);
+        boolean delivered = false;
+        for (Client client : clients.values()) {
+            if (userId.equals(client.userId())) {
+                delivered |= send(client.ctx(), frame);
+            }
+        }
+        return delivered;
+    }
+
+    public void broadcast(String frame) {
+        for (Client client : clients.values()) {
+            send(client.ctx(), frame);
+        }
+    }
+
+    private void handle(WsMessageContext ctx) {
+        ChannelMessage message;
+        try {
+            message = Json.MAPPER.readValue(ctx.message(), ChannelMessage.class);
+        } catch (JsonProcessingException e) {
+            send(ctx, reply("nack", null, "invalid-json"));
+            return;
+        }
+
+        Client client = clients.get(ctx.sessionId());
+        String userId = client != null ? client.userId() : null;
+        String type = message.type() != null ? message.type() : "";
+
+        if (type.equals("ping")) {
+            send(ctx, reply("pong", message.id(), null));
+            return;
+        }
+        if (userId == null) {
+            send(ctx, reply("nack", message.id(), "no-user"));
+            return;
+        }
+
+        String error = switch (type) {
+            case "progress" -> persistence.saveProgress(new ProgressRequest(userId, message.lessonId(),
+                    message.currentStep(), message.completed())) ? null : "invalid";
+            case "paste" -> error(persistence.logPaste(
+                    new PasteRequest(userId, message.lessonId(), message.stepIndex(), null)));
+            case "events" -> error(persistence.logEvents(withUser(message.events(), userId)));
+            default -> "unknown-type";
+        };
+
+        send(ctx, error == null ? reply("ack", message.id(), null) : reply("nack", message.id(), error));
+    }
+
+    private static String error(EventIngestService.Result result) {
+        return switch (result) {
+            case ACCEPTED -> null;
+            case INVALID -> "invalid";
+            case QUEUE_FULL -> "queue-full";
+        };
+    }
+
+    private static List<StepEventRequest> withUser(List<StepEventRequest> events, String userId) {
+        if (events == null) {
+            return null;
+        }
+        List<StepEventRequest> result = new ArrayList<>(events.size());
+        for (StepEventRequest event : events) {
+            result.add(event == null || event.userId() != null ? event
+                    : new StepEventRequest(userId, event.lessonId(), event.stepIndex(), event.type(), event.createdAt()));
+        }
+        return result;
+    }
+
+    /**
+     * Sends are serialized per session; Jetty does not allow overlapping
+     * blocking writes on one connection.
+     */
+    private boolean send(WsContext ctx, String frame) {
+        synchronized (ctx.session) {
+            if (!ctx.session.isOpen()) {
+                return false;
+            }
+            try {
+                ctx.send(frame);
+                return true;
+            } catch (Exception e) {
+                System.err.println("Dropping WebSocket frame for " + ctx.sessionId() + ": " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    private static String reply(String type, Long id, String reason) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", type);
+        if (id != null) {
+            frame.put("id", id);
+        }
+        if (reason != null) {
+            frame.put("reason", reason);
+        }
+        return write(frame);
+    }
+
+    private static String push(String type, Object data) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", type);
+        frame.put("data", data);
+        return write(frame);
+    }
+
+    private static String write(Map<String, Object> frame) {
+        try {
+            return Json.MAPPER.writeValueAsString(frame);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
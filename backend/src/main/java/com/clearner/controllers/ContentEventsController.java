@@ -0,0 +1,36 @@
+package com.clearner.controllers;
+
+import com.clearner.services.ContentService;
+import io.javalin.http.sse.SseClient;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pushes lesson reloads to connected clients as server-sent events
+ * (/api/content/events), so open lessons can refresh without polling.
+ */
+public class ContentEventsController {
+
+    private final Set<SseClient> clients = ConcurrentHashMap.newKeySet();
+
+    public ContentEventsController(ContentService content) {
+        content.addListener(this::publish);
+    }
+
+    public void connect(SseClient client) {
+        client.keepAlive();
+        client.onClose(() -> clients.remove(client));
+        clients.add(client);
+    }
+
+    private void publish(ContentService.ContentChange change) {
+        for (SseClient client : clients) {
+            if (client.terminated()) {
+                clients.remove(client);
+            } else {
+                client.sendEvent("lesson-changed", change);
+            }
+        }
+    }
+}
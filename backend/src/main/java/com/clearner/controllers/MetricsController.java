@@ -0,0 +1,197 @@
+package com.clearner.controllers;
+
+import com.clearner.metrics.DatabaseMetrics;
+import com.clearner.metrics.LatencyHistogram;
+import com.clearner.metrics.MetricsRegistry;
+import com.clearner.metrics.RouteMetrics;
+import com.clearner.services.ContentService;
+import com.clearner.services.DatabaseService;
+import com.clearner.services.EventIngestService;
+import com.clearner.services.PersistenceService;
+import com.clearner.services.ProgressBuffer;
+import com.clearner.services.SyncService;
+import io.javalin.http.Context;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves operational metrics as JSON (/api/metrics) and in the Prometheus
+ * text format (/api/metrics/prometheus).
+ */
+public class MetricsController {
+
+    private final MetricsRegistry registry;
+    private final DatabaseMetrics database;
+    private final ContentService content;
+    private final PersistenceService persistence;
+    private final SyncService sync;
+
+    public MetricsController(MetricsRegistry registry, DatabaseService db, ContentService content,
+                             PersistenceService persistence, SyncService sync) {
+        this.registry = registry;
+        this.database = db.getDatabase().getMetrics();
+        this.content = content;
+        this.persistence = persistence;
+        this.sync = sync;
+    }
+
+    public void json(Context ctx) {
+        Map<String, Object> body = new LinkedHashMap<>();
+
+        List<RouteMetrics.Snapshot> routes = new ArrayList<>();
+        for (RouteMetrics route : registry.getRoutes()) {
+            routes.add(route.snapshot());
+        }
+        body.put("routes", routes);
+        body.put("database", database.snapshot());
+
+        Map<String, Object> cache = new LinkedHashMap<>();
+        long hits = content.getCache().getHits();
+        long misses = content.getCache().getMisses();
+        cache.put("hits", hits);
+        cache.put("misses", misses);
+        cache.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        cache.put("entries", content.getCache().size());
+        body.put("contentCache", cache);
+
+        body.put("progressBuffer", persistence.getProgressBufferStats());
+        body.put("events", persistence.getEventStats());
+        body.put("sync", sync.getStatus());
+        body.put("jvm", jvm());
+
+        ctx.json(body);
+    }
+
+    public void prometheus(Context ctx) {
+        StringBuilder out = new StringBuilder(8192);
+
+        header(out, "clearner_http_requests_total", "counter", "HTTP requests by route");
+        header(out, "clearner_http_errors_total", "counter", "HTTP 4xx/5xx responses by route");
+        List<RouteMetrics> routes = registry.getRoutes();
+        for (RouteMetrics route : routes) {
+            String labels = "method=\"" + route.getMethod() + "\",route=\"" + escape(route.getPath()) + "\"";
+            sample(out, "clearner_http_requests_total", labels, route.getRequests());
+            sample(out, "clearner_http_errors_total", labels + ",class=\"4xx\"", route.getClientErrors());
+            sample(out, "clearner_http_errors_total", labels + ",class=\"5xx\"", route.getServerErrors());
+        }
+        header(out, "clearner_http_request_duration_seconds", "histogram", "HTTP request latency by route");
+        for (RouteMetrics route : routes) {
+            histogram(out, "clearner_http_request_duration_seconds",
+                    "method=\"" + route.getMethod() + "\",route=\"" + escape(route.getPath()) + "\"", route.getLatency());
+        }
+
+        header(out, "clearner_db_duration_seconds", "histogram", "Database work duration by kind");
+        histogram(out, "clearner_db_duration_seconds", "kind=\"read\"", database.reads());
+        histogram(out, "clearner_db_duration_seconds", "kind=\"write\"", database.writes());
+        histogram(out, "clearner_db_duration_seconds", "kind=\"transaction\"", database.transactions());
+        header(out, "clearner_db_write_lock_wait_seconds", "histogram", "Time spent waiting for the writer connection");
+        histogram(out, "clearner_db_write_lock_wait_seconds", "", database.writeLockWait());
+        header(out, "clearner_db_busy_total", "counter", "SQLITE_BUSY/SQLITE_LOCKED errors");
+        sample(out, "clearner_db_busy_total", "", database.getBusyErrors());
+        header(out, "clearner_db_errors_total", "counter", "Database errors");
+        sample(out, "clearner_db_errors_total", "", database.getErrors());
+
+        header(out, "clearner_content_cache_hits_total", "counter", "Lesson cache hits");
+        sample(out, "clearner_content_cache_hits_total", "", content.getCache().getHits());
+        header(out, "clearner_content_cache_misses_total", "counter", "Lesson cache misses");
+        sample(out, "clearner_content_cache_misses_total", "", content.getCache().getMisses());
+
+        ProgressBuffer.Stats progress = persistence.getProgressBufferStats();
+        header(out, "clearner_progress_pending", "gauge", "Buffered progress updates not yet written");
+        sample(out, "clearner_progress_pending", "", progress.pending());
+        EventIngestService.Stats events = persistence.getEventStats();
+        header(out, "clearner_events_queued", "gauge", "Step events waiting to be written");
+        sample(out, "clearner_events_queued", "", events.queued());
+        header(out, "clearner_events_rejected_total", "counter", "Step events rejected because the queue was full");
+        sample(out, "clearner_events_rejected_total", "", events.rejected());
+        header(out, "clearner_sync_backlog", "gauge", "Rows and queued operations waiting to sync");
+        sample(out, "clearner_sync_backlog", "", sync.getStatus().backlog());
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(out, "clearner_jvm_heap_bytes", "gauge", "JVM heap usage");
+        sample(out, "clearner_jvm_heap_bytes", "area=\"used\"", heap.getUsed());
+        sample(out, "clearner_jvm_heap_bytes", "area=\"committed\"", heap.getCommitted());
+        sample(out, "clearner_jvm_heap_bytes", "area=\"max\"", heap.getMax());
+        header(out, "clearner_jvm_gc_collections_total", "counter", "GC collections by collector");
+        header(out, "clearner_jvm_gc_seconds_total", "counter", "GC time by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String labels = "gc=\"" + escape(gc.getName()) + "\"";
+            sample(out, "clearner_jvm_gc_collections_total", labels, gc.getCollectionCount());
+            sample(out, "clearner_jvm_gc_seconds_total", labels, gc.getCollectionTime() / 1000.0);
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        header(out, "clearner_jvm_threads", "gauge", "Live JVM threads");
+        sample(out, "clearner_jvm_threads", "state=\"live\"", threads.getThreadCount());
+        sample(out, "clearner_jvm_threads", "state=\"daemon\"", threads.getDaemonThreadCount());
+        sample(out, "clearner_jvm_threads", "state=\"peak\"", threads.getPeakThreadCount());
+
+        ctx.contentType("text/plain; version=0.0.4").result(out.toString());
+    }
+
+    private static Map<String, Object> jvm() {
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        jvm.put("heapUsed", heap.getUsed());
+        jvm.put("heapCommitted", heap.getCommitted());
+        jvm.put("heapMax", heap.getMax());
+
+        List<Map<String, Object>> collectors = new ArrayList<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("name", gc.getName());
+            item.put("collections", gc.getCollectionCount());
+            item.put("timeMs", gc.getCollectionTime());
+            collectors.add(item);
+        }
+        jvm.put("gc", collectors);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        jvm.put("threads", threads.getThreadCount());
+        jvm.put("daemonThreads", threads.getDaemonThreadCount());
+        jvm.put("peakThreads", threads.getPeakThreadCount());
+        jvm.put("uptimeMs", ManagementFactory.getRuntimeMXBean().getUptime());
+        return jvm;
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        double[] bounds = LatencyHistogram.boundsSeconds();
+        long[] cumulative = histogram.cumulativeCounts();
+        for (int i = 0; i < bounds.length; i++) {
+            sample(out, name + "_bucket", prefix + "le=\"" + bounds[i] + "\"", cumulative[i]);
+        }
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", cumulative[cumulative.length - 1]);
+        sample(out, name + "_sum", labels, histogram.sumSeconds());
+        sample(out, name + "_count", labels, cumulative[cumulative.length - 1]);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
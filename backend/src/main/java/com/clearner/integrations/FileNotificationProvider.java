@@ -0,0 +1,71 @@
+package com.clearner.integrations;
+
+import com.clearner.Json;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Local stand-in for a notification provider.
+ * Appends each delivered notification as one NDJSON line to a file, so
+ * the dispatcher can be run and inspected without an external service.
+ */
+public class FileNotificationProvider implements NotificationProvider {
+
+    private final String name;
+    private final Path file;
+    private volatile boolean failing;
+
+    public FileNotificationProvider(String name, Path file) {
+        this.name = name;
+        this.file = file;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int maxBatchSize() {
+        return 500;
+    }
+
+    /**
+     * Make every send fail, to exercise retries and the circuit breaker.
+     */
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    @Override
+    public synchronized void send(List<Notification> batch) throws IOException {
+        if (failing) {
+            throw new IOException("Notification file " + file + " is set to fail");
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             JsonGenerator gen = Json.MAPPER.createGenerator(out)) {
+            gen.setRootValueSeparator(new SerializedString("\n"));
+            for (Notification notification : batch) {
+                gen.writeStartObject();
+                gen.writeNumberField("id", notification.id());
+                gen.writeNumberField("createdAt", notification.createdAt());
+                gen.writeFieldName("message");
+                gen.writeRawValue(notification.message());
+                gen.writeEndObject();
+            }
+            gen.writeRaw('\n');
+        }
+    }
+}
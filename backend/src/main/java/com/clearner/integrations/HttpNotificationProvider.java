@@ -0,0 +1,77 @@
+package com.clearner.integrations;
+
+import com.clearner.Json;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Posts notification batches as a JSON array to a webhook URL.
+ * Each element is {"id": ..., "createdAt": ..., "message": {...}}; any 2xx
+ * answer counts as delivered.
+ */
+public class HttpNotificationProvider implements NotificationProvider {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final String name;
+    private final URI url;
+    private final HttpClient http;
+
+    public HttpNotificationProvider(String name, String url) {
+        this.name = name;
+        this.url = URI.create(url);
+        this.http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void send(List<Notification> batch) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(url)
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(toJson(batch)))
+                .build();
+
+        HttpResponse<Void> response;
+        try {
+            response = http.send(request, HttpResponse.BodyHandlers.discarding());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Notification send interrupted", e);
+        }
+
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Notification webhook " + name + " failed with HTTP " + response.statusCode());
+        }
+    }
+
+    private static byte[] toJson(List<Notification> batch) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 * batch.size());
+        try (JsonGenerator gen = Json.MAPPER.createGenerator(out)) {
+            gen.writeStartArray();
+            for (Notification notification : batch) {
+                gen.writeStartObject();
+                gen.writeNumberField("id", notification.id());
+                gen.writeNumberField("createdAt", notification.createdAt());
+                // The stored message is already JSON
+                gen.writeFieldName("message");
+                gen.writeRawValue(notification.message());
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,56 @@
+package com.clearner.integrations;
+
+import com.clearner.Json;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Pushes sync batches as JSON to {baseUrl}/sync/{entityType}.
+ * The remote answers with a PushResult listing records it kept as newer.
+ */
+public class HttpRemoteSyncClient implements RemoteSyncClient {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final String baseUrl;
+    private final HttpClient http;
+    private final ObjectMapper mapper;
+
+    public HttpRemoteSyncClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        this.mapper = Json.MAPPER;
+    }
+
+    @Override
+    public PushResult push(String entityType, List<SyncRecord> records) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/sync/" + entityType))
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(records)))
+                .build();
+
+        HttpResponse<byte[]> response;
+        try {
+            response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sync push interrupted", e);
+        }
+
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Sync push for " + entityType + " failed with HTTP " + response.statusCode());
+        }
+        if (response.body().length == 0) {
+            return PushResult.accepted();
+        }
+        return mapper.readValue(response.body(), PushResult.class);
+    }
+}
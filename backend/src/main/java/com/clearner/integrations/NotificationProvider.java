@@ -0,0 +1,31 @@
+package com.clearner.integrations;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Delivers outbound notifications for one provider name in
+ * external_notifications. A batch either goes out as a whole or the call
+ * throws and every notification in it is retried later.
+ */
+public interface NotificationProvider {
+
+    /**
+     * A claimed row. message is the stored JSON payload.
+     */
+    record Notification(long id, String message, long createdAt) {}
+
+    /**
+     * The value stored in external_notifications.provider for this provider.
+     */
+    String name();
+
+    /**
+     * Largest batch the provider accepts in one call.
+     */
+    default int maxBatchSize() {
+        return 50;
+    }
+
+    void send(List<Notification> batch) throws IOException;
+}
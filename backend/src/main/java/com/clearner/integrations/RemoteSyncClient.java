@@ -0,0 +1,32 @@
+package com.clearner.integrations;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remote end of the sync engine.
+ * Implementations push a batch of local changes for one entity type and
+ * report which records the remote kept because its own copy is newer.
+ */
+public interface RemoteSyncClient {
+
+    /**
+     * A local row or queued operation being pushed.
+     * key identifies the row within its entity type, updatedAt is the
+     * timestamp used for last-writer-wins conflict resolution.
+     */
+    record SyncRecord(String key, String operation, long updatedAt, Map<String, Object> data) {}
+
+    /**
+     * Records the remote rejected because it already has a newer version.
+     * Each entry carries the remote copy that should replace the local row.
+     */
+    record PushResult(List<SyncRecord> newerOnRemote) {
+        public static PushResult accepted() {
+            return new PushResult(List.of());
+        }
+    }
+
+    PushResult push(String entityType, List<SyncRecord> records) throws IOException;
+}
@@ -0,0 +1,281 @@
+package com.clearner.loadtest;
+
+import com.clearner.Json;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates a classroom against a running backend.
+ *
+ * Learners arrive as a Poisson process at arrivalRate per second until
+ * all have joined. Each learner runs on its own virtual thread: log in,
+ * load the catalog and a lesson, then work through its steps, posting
+ * progress after every think time, logging the odd paste and reloading
+ * progress now and then. Finishing a lesson starts another.
+ *
+ * The schedule is open loop: arrivals and progress posts have planned
+ * send times that do not move when the server is slow, and their latency
+ * is measured from that planned time. A struggling server therefore shows
+ * up as growing latency instead of quietly lowering the request rate.
+ * Requests that follow another one (catalog, paste, reload) are timed
+ * from when they are actually sent.
+ *
+ * Point it at a throwaway instance; every run creates new users.
+ *
+ * java -cp backend/target/backend-1.0-SNAPSHOT.jar -Dclearner.loadtest.learners=200 com.clearner.loadtest.ClassroomLoadTest
+ */
+public class ClassroomLoadTest {
+
+    private record Config(String url, int learners, double arrivalRate, int durationSec, long thinkMs,
+                          double pasteChance, double reloadChance, Path out) {
+
+        static Config fromProperties() {
+            String url = System.getProperty("clearner.loadtest.url", "http://localhost:8080");
+            return new Config(
+                    url.endsWith("/") ? url.substring(0, url.length() - 1) : url,
+                    Integer.getInteger("clearner.loadtest.learners", 100),
+                    Double.parseDouble(System.getProperty("clearner.loadtest.arrivalRate", "10")),
+                    Integer.getInteger("clearner.loadtest.durationSec", 60),
+                    Long.getLong("clearner.loadtest.thinkMs", 2000),
+                    Double.parseDouble(System.getProperty("clearner.loadtest.pasteChance", "0.1")),
+                    Double.parseDouble(System.getProperty("clearner.loadtest.reloadChance", "0.05")),
+                    Path.of(System.getProperty("clearner.loadtest.out", "loadtest-report")));
+        }
+
+        Map<String, Object> describe() {
+            Map<String, Object> config = new LinkedHashMap<>();
+            config.put("url", url);
+            config.put("learners", learners);
+            config.put("arrivalRate", arrivalRate);
+            config.put("durationSec", durationSec);
+            config.put("thinkMs", thinkMs);
+            config.put("pasteChance", pasteChance);
+            config.put("reloadChance", reloadChance);
+            return config;
+        }
+    }
+
+    private record Lesson(String course, String slug, String id, int steps) {}
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final Config config;
+    private final HttpClient http;
+    private final LoadReport report;
+    private final long startNanos;
+    private final long endNanos;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private List<Lesson> lessons = List.of();
+
+    private ClassroomLoadTest(Config config, ExecutorService executor) {
+        this.config = config;
+        this.http = HttpClient.newBuilder()
+                .executor(executor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.startNanos = System.nanoTime();
+        this.endNanos = startNanos + TimeUnit.SECONDS.toNanos(config.durationSec());
+        this.report = new LoadReport(config.durationSec(), startNanos);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.fromProperties();
+        System.out.println("Simulating " + config.learners() + " learners against " + config.url() + " for "
+                + config.durationSec() + " s");
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            ClassroomLoadTest test = new ClassroomLoadTest(config, executor);
+            long[] before = test.databaseErrors();
+            test.lessons = test.loadCatalog();
+            if (test.lessons.isEmpty()) {
+                System.err.println("No lessons at " + config.url() + "/api/lessons");
+                System.exit(1);
+            }
+
+            test.run(executor);
+            double elapsed = (System.nanoTime() - test.startNanos) / 1e9;
+            long[] after = test.databaseErrors();
+
+            LoadReport.Summary summary = test.report.summarize(config.describe(), elapsed,
+                    after[0] - before[0], after[1] - before[1]);
+            LoadReport.write(summary, config.out());
+            print(summary);
+            System.out.println("Report written to " + config.out().toAbsolutePath().resolve("report.html"));
+        }
+    }
+
+    private void run(ExecutorService executor) throws InterruptedException {
+        List<Future<?>> sessions = new ArrayList<>(config.learners());
+        long arrival = startNanos;
+        for (int i = 0; i < config.learners(); i++) {
+            arrival += exponentialNanos(1_000_000_000L / Math.max(config.arrivalRate(), 0.001));
+            if (arrival >= endNanos) {
+                break;
+            }
+            sleepUntil(arrival);
+            int learner = i;
+            long joinedAt = arrival;
+            sessions.add(executor.submit(() -> session(learner, joinedAt)));
+        }
+
+        for (Future<?> session : sessions) {
+            try {
+                session.get(config.durationSec() + TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+            } catch (Exception e) {
+                session.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * One learner from login to the end of the run.
+     */
+    private void session(int learner, long joinedAt) {
+        report.learnerStarted();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long planned = joinedAt;
+
+        HttpResponse<byte[]> login = send("login", planned, post("/api/auth/login",
+                "{\"displayName\":\"loadtest-" + runId + "-" + learner + "\"}"));
+        String userId = login != null && login.statusCode() == 200 ? readId(login.body()) : null;
+        if (userId == null) {
+            return;
+        }
+        send("catalog", System.nanoTime(), get("/api/lessons"));
+
+        while (System.nanoTime() < endNanos) {
+            Lesson lesson = lessons.get(random.nextInt(lessons.size()));
+            send("lesson", System.nanoTime(), get("/api/lessons/" + lesson.course() + "/" + lesson.slug()));
+
+            for (int step = 0; step < lesson.steps() && System.nanoTime() < endNanos; step++) {
+                planned += exponentialNanos(TimeUnit.MILLISECONDS.toNanos(config.thinkMs()));
+                if (planned >= endNanos) {
+                    return;
+                }
+                sleepUntil(planned);
+
+                boolean completed = step == lesson.steps() - 1;
+                send("progress", planned, post("/api/progress", "{\"userId\":\"" + userId + "\",\"lessonId\":\""
+                        + lesson.id() + "\",\"currentStep\":" + step + ",\"completed\":" + completed + "}"));
+                if (random.nextDouble() < config.pasteChance()) {
+                    send("paste", System.nanoTime(), post("/api/log/paste", "{\"userId\":\"" + userId
+                            + "\",\"lessonId\":\"" + lesson.id() + "\",\"stepIndex\":" + step
+                            + ",\"content\":\"<p>copied</p>\"}"));
+                }
+                if (random.nextDouble() < config.reloadChance()) {
+                    send("progress-reload", System.nanoTime(), get("/api/progress/" + userId));
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a request and record its latency from the planned send time.
+     * Returns null when the request failed without a response.
+     */
+    private HttpResponse<byte[]> send(String op, long planned, HttpRequest request) {
+        try {
+            HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            long now = System.nanoTime();
+            report.record(op, response.statusCode(), now - planned, now);
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
+            report.recordFailure(op, e);
+            return null;
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(config.url() + path)).timeout(TIMEOUT).GET().build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(URI.create(config.url() + path))
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private List<Lesson> loadCatalog() throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = http.send(get("/api/lessons"), HttpResponse.BodyHandlers.ofByteArray());
+        List<Lesson> catalog = new ArrayList<>();
+        if (response.statusCode() != 200) {
+            return catalog;
+        }
+        for (JsonNode lesson : Json.MAPPER.readTree(response.body())) {
+            int steps = lesson.path("stepCount").asInt();
+            if (steps > 0) {
+                catalog.add(new Lesson(lesson.path("course").asText(), lesson.path("slug").asText(),
+                        lesson.path("id").asText(), steps));
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * SQLITE_BUSY/LOCKED and total SQLite error counts from /api/metrics.
+     */
+    private long[] databaseErrors() {
+        try {
+            HttpResponse<byte[]> response = http.send(get("/api/metrics"), HttpResponse.BodyHandlers.ofByteArray());
+            JsonNode database = Json.MAPPER.readTree(response.body()).path("database");
+            return new long[] {database.path("busyErrors").asLong(), database.path("errors").asLong()};
+        } catch (Exception e) {
+            System.err.println("Could not read /api/metrics: " + e.getMessage());
+            return new long[] {0, 0};
+        }
+    }
+
+    private static String readId(byte[] body) {
+        try {
+            return Json.MAPPER.readTree(body).path("id").asText(null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long exponentialNanos(double meanNanos) {
+        return (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanNanos);
+    }
+
+    private static void sleepUntil(long nanos) {
+        long remaining;
+        while ((remaining = nanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static void print(LoadReport.Summary summary) {
+        System.out.printf("%d learners, %d requests in %.1f s: %.1f req/s, error rate %.3f%%, SQLITE_BUSY %d%n",
+                summary.learners(), summary.requests(), summary.elapsedSec(), summary.throughputPerSec(),
+                summary.errorRate() * 100, summary.sqliteBusy());
+        System.out.printf("%-16s %9s %9s %9s %9s %9s %9s%n", "operation", "requests", "errors", "p50 ms", "p90 ms",
+                "p99 ms", "max ms");
+        for (Map.Entry<String, LoadReport.OpSummary> entry : summary.operations().entrySet()) {
+            LoadReport.OpSummary op = entry.getValue();
+            System.out.printf("%-16s %9d %9d %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), op.requests(),
+                    op.serverErrors() + op.failures(), op.p50Ms(), op.p90Ms(), op.p99Ms(), op.maxMs());
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.clearner.loadtest;
+
+import com.clearner.Json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects results of a load test run and writes them as JSON and HTML.
+ * Every latency is kept, so percentiles are exact rather than bucketed;
+ * a run of a few million requests needs a few tens of megabytes.
+ */
+public class LoadReport {
+
+    public record OpSummary(long requests, long ok, long clientErrors, long serverErrors, long failures,
+                            double throughputPerSec, double meanMs, double p50Ms, double p90Ms, double p99Ms,
+                            double p999Ms, double maxMs) {}
+
+    public record Summary(Map<String, Object> config, double elapsedSec, long learners, long requests,
+                          double throughputPerSec, double errorRate, long sqliteBusy, long sqliteErrors,
+                          Map<String, OpSummary> operations, long[] requestsPerSecond, Map<String, Long> failures) {}
+
+    private final Map<String, Op> ops = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final AtomicLongArray perSecond;
+    private final LongAdder learners = new LongAdder();
+    private final long startNanos;
+
+    public LoadReport(int seconds, long startNanos) {
+        this.perSecond = new AtomicLongArray(Math.max(1, seconds + 1));
+        this.startNanos = startNanos;
+    }
+
+    public void learnerStarted() {
+        learners.increment();
+    }
+
+    /**
+     * Record a completed request. status is the HTTP status, or 0 when the
+     * request failed without a response.
+     */
+    public void record(String op, int status, long latencyNanos, long finishedNanos) {
+        ops.computeIfAbsent(op, k -> new Op()).record(status, latencyNanos);
+        int second = (int) ((finishedNanos - startNanos) / 1_000_000_000L);
+        if (second >= 0 && second < perSecond.length()) {
+            perSecond.incrementAndGet(second);
+        }
+    }
+
+    public void recordFailure(String op, Throwable error) {
+        record(op, 0, 0, System.nanoTime());
+        failures.computeIfAbsent(op + ": " + error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    public Summary summarize(Map<String, Object> config, double elapsedSec, long sqliteBusy, long sqliteErrors) {
+        Map<String, OpSummary> operations = new LinkedHashMap<>();
+        long requests = 0;
+        long errors = 0;
+        for (String name : ops.keySet().stream().sorted().toList()) {
+            OpSummary op = ops.get(name).summarize(elapsedSec);
+            operations.put(name, op);
+            requests += op.requests();
+            errors += op.serverErrors() + op.failures();
+        }
+
+        long[] timeline = new long[Math.min(perSecond.length(), (int) Math.ceil(elapsedSec))];
+        for (int i = 0; i < timeline.length; i++) {
+            timeline[i] = perSecond.get(i);
+        }
+        Map<String, Long> failureCounts = new LinkedHashMap<>();
+        failures.forEach((k, v) -> failureCounts.put(k, v.sum()));
+
+        return new Summary(config, elapsedSec, learners.sum(), requests, requests / elapsedSec,
+                requests == 0 ? 0 : (double) errors / requests, sqliteBusy, sqliteErrors, operations, timeline,
+                failureCounts);
+    }
+
+    public static void write(Summary summary, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Json.MAPPER.writerWithDefaultPrettyPrinter().writeValue(dir.resolve("report.json").toFile(), summary);
+        Files.writeString(dir.resolve("report.html"), html(summary), StandardCharsets.UTF_8);
+    }
+
+    private static String html(Summary s) {
+        StringBuilder out = new StringBuilder(8192);
+        out.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>Clearner load test</title>\n")
+           .append("<style>body{font-family:sans-serif;margin:2em}table{border-collapse:collapse}")
+           .append("td,th{border:1px solid #ccc;padding:4px 10px;text-align:right}th:first-child,td:first-child{text-align:left}")
+           .append("</style>\n</head>\n<body>\n<h1>Clearner load test</h1>\n");
+
+        out.append("<p>").append(s.learners()).append(" learners, ").append(s.requests()).append(" requests in ")
+           .append(fmt(s.elapsedSec())).append(" s: <b>").append(fmt(s.throughputPerSec())).append(" req/s</b>, error rate ")
+           .append(fmt(s.errorRate() * 100)).append("%, SQLITE_BUSY ").append(s.sqliteBusy())
+           .append(", other SQLite errors ").append(s.sqliteErrors()).append("</p>\n");
+
+        out.append("<table>\n<tr><th>operation</th><th>requests</th><th>req/s</th><th>2xx/3xx</th><th>4xx</th>")
+           .append("<th>5xx</th><th>failed</th><th>mean ms</th><th>p50</th><th>p90</th><th>p99</th><th>p99.9</th><th>max</th></tr>\n");
+        for (Map.Entry<String, OpSummary> entry : s.operations().entrySet()) {
+            OpSummary op = entry.getValue();
+            out.append("<tr><td>").append(entry.getKey()).append("</td>");
+            cells(out, op.requests(), fmt(op.throughputPerSec()), op.ok(), op.clientErrors(), op.serverErrors(),
+                    op.failures(), fmt(op.meanMs()), fmt(op.p50Ms()), fmt(op.p90Ms()), fmt(op.p99Ms()),
+                    fmt(op.p999Ms()), fmt(op.maxMs()));
+            out.append("</tr>\n");
+        }
+        out.append("</table>\n");
+
+        out.append("<h2>Requests per second</h2>\n").append(chart(s.requestsPerSecond()));
+
+        if (!s.failures().isEmpty()) {
+            out.append("<h2>Failures</h2>\n<ul>\n");
+            s.failures().forEach((k, v) -> out.append("<li>").append(escape(k)).append(": ").append(v).append("</li>\n"));
+            out.append("</ul>\n");
+        }
+
+        out.append("<h2>Configuration</h2>\n<pre>").append(escape(s.config().toString())).append("</pre>\n")
+           .append("</body>\n</html>\n");
+        return out.toString();
+    }
+
+    private static String chart(long[] values) {
+        int width = 800;
+        int height = 200;
+        long max = Arrays.stream(values).max().orElse(0);
+        StringBuilder svg = new StringBuilder("<svg width=\"").append(width).append("\" height=\"").append(height + 20)
+                .append("\" xmlns=\"http://www.w3.org/2000/svg\">\n");
+        if (values.length > 0 && max > 0) {
+            double bar = (double) width / values.length;
+            for (int i = 0; i < values.length; i++) {
+                double h = (double) values[i] / max * height;
+                svg.append("<rect x=\"").append(fmt(i * bar)).append("\" y=\"").append(fmt(height - h))
+                   .append("\" width=\"").append(fmt(Math.max(1, bar - 1))).append("\" height=\"").append(fmt(h))
+                   .append("\" fill=\"#4a7\"><title>").append(i).append("s: ").append(values[i]).append("</title></rect>\n");
+            }
+        }
+        svg.append("<text x=\"0\" y=\"").append(height + 15).append("\" font-size=\"12\">peak ").append(max)
+           .append(" req/s</text>\n</svg>\n");
+        return svg.toString();
+    }
+
+    private static void cells(StringBuilder out, Object... values) {
+        for (Object value : values) {
+            out.append("<td>").append(value).append("</td>");
+        }
+    }
+
+    private static String fmt(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    /**
+     * Results for one operation. Latencies go into a growable array under
+     * a lock; recording is far cheaper than the request it measures.
+     */
+    private static final class Op {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long ok;
+        private long clientErrors;
+        private long serverErrors;
+        private long failures;
+
+        synchronized void record(int status, long latencyNanos) {
+            if (status == 0) {
+                failures++;
+                return;
+            }
+            if (status >= 500) {
+                serverErrors++;
+            } else if (status >= 400) {
+                clientErrors++;
+            } else {
+                ok++;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+        }
+
+        synchronized OpSummary summarize(double elapsedSec) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            long sum = 0;
+            for (long latency : sorted) {
+                sum += latency;
+            }
+            long requests = count + failures;
+            return new OpSummary(requests, ok, clientErrors, serverErrors, failures, requests / elapsedSec,
+                    count == 0 ? 0 : sum / 1e6 / count, percentile(sorted, 0.50), percentile(sorted, 0.90),
+                    percentile(sorted, 0.99), percentile(sorted, 0.999), count == 0 ? 0 : sorted[count - 1] / 1e6);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.clearner.metrics;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings for database work and for waits on the single-writer lock.
+ */
+public class DatabaseMetrics {
+
+    public record Snapshot(LatencyHistogram.Snapshot reads, LatencyHistogram.Snapshot writes,
+                           LatencyHistogram.Snapshot transactions, LatencyHistogram.Snapshot writeLockWait,
+                           long busyErrors, long errors) {}
+
+    // SQLite primary result codes for a locked database
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+
+    private final LatencyHistogram reads = new LatencyHistogram();
+    private final LatencyHistogram writes = new LatencyHistogram();
+    private final LatencyHistogram transactions = new LatencyHistogram();
+    private final LatencyHistogram writeLockWait = new LatencyHistogram();
+    private final LongAdder busyErrors = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public LatencyHistogram reads() { return reads; }
+
+    public LatencyHistogram writes() { return writes; }
+
+    public LatencyHistogram transactions() { return transactions; }
+
+    public LatencyHistogram writeLockWait() { return writeLockWait; }
+
+    public long getBusyErrors() { return busyErrors.sum(); }
+
+    public long getErrors() { return errors.sum(); }
+
+    public void recordError(SQLException e) {
+        errors.increment();
+        int code = e.getErrorCode() & 0xff;
+        if (code == SQLITE_BUSY || code == SQLITE_LOCKED) {
+            busyErrors.increment();
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(reads.snapshot(), writes.snapshot(), transactions.snapshot(), writeLockWait.snapshot(),
+                busyErrors.sum(), errors.sum());
+    }
+}
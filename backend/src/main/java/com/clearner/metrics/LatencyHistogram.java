@@ -0,0 +1,126 @@
+package com.clearner.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram.
+ * Recording is a bucket search plus two LongAdder increments, so it does not
+ * allocate and scales under contention. Percentiles are estimated by linear
+ * interpolation inside the bucket that holds the requested rank.
+ */
+public class LatencyHistogram {
+
+    public record Snapshot(long count, double meanMs, double p50Ms, double p95Ms, double p99Ms, double maxMs) {}
+
+    private static final long[] BOUNDS_NANOS = {
+        micros(50), micros(100), micros(250), micros(500),
+        millis(1), millis(2), millis(5), millis(10), millis(25), millis(50),
+        millis(100), millis(250), millis(500),
+        millis(1000), millis(2500), millis(5000), millis(10000)
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int index = 0;
+        while (index < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[index]) {
+            index++;
+        }
+        buckets[index].increment();
+        sumNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        long max = maxNanos.get();
+        return new Snapshot(
+            total,
+            total == 0 ? 0 : toMillis(sumNanos.sum() / (double) total),
+            toMillis(percentile(counts, total, max, 0.50)),
+            toMillis(percentile(counts, total, max, 0.95)),
+            toMillis(percentile(counts, total, max, 0.99)),
+            toMillis(max)
+        );
+    }
+
+    /**
+     * Cumulative bucket counts as Prometheus expects them, one per bound plus +Inf.
+     */
+    public long[] cumulativeCounts() {
+        long[] cumulative = new long[buckets.length];
+        long running = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            running += buckets[i].sum();
+            cumulative[i] = running;
+        }
+        return cumulative;
+    }
+
+    public double sumSeconds() {
+        return sumNanos.sum() / 1_000_000_000.0;
+    }
+
+    public static double[] boundsSeconds() {
+        double[] seconds = new double[BOUNDS_NANOS.length];
+        for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+            seconds[i] = BOUNDS_NANOS[i] / 1_000_000_000.0;
+        }
+        return seconds;
+    }
+
+    private static double percentile(long[] counts, long total, long max, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        double rank = quantile * total;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (seen + counts[i] >= rank) {
+                double lower = i == 0 ? 0 : BOUNDS_NANOS[i - 1];
+                double upper = i < BOUNDS_NANOS.length ? Math.min(BOUNDS_NANOS[i], max) : max;
+                return lower + (upper - lower) * ((rank - seen) / counts[i]);
+            }
+            seen += counts[i];
+        }
+        return max;
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static long micros(long value) {
+        return TimeUnit.MICROSECONDS.toNanos(value);
+    }
+
+    private static long millis(long value) {
+        return TimeUnit.MILLISECONDS.toNanos(value);
+    }
+}
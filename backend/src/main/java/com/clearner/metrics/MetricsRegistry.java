@@ -0,0 +1,36 @@
+package com.clearner.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-route request metrics, keyed by HTTP method and route template.
+ * Routes are looked up in a map per method so recording a request does not
+ * build a composite key.
+ */
+public class MetricsRegistry {
+
+    private final Map<String, Map<String, RouteMetrics>> routes = new ConcurrentHashMap<>();
+
+    public void record(String method, String path, int status, long nanos) {
+        Map<String, RouteMetrics> byPath = routes.get(method);
+        if (byPath == null) {
+            byPath = routes.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+        }
+        RouteMetrics route = byPath.get(path);
+        if (route == null) {
+            route = byPath.computeIfAbsent(path, p -> new RouteMetrics(method, p));
+        }
+        route.record(status, nanos);
+    }
+
+    public List<RouteMetrics> getRoutes() {
+        List<RouteMetrics> all = new ArrayList<>();
+        for (Map<String, RouteMetrics> byPath : routes.values()) {
+            all.addAll(byPath.values());
+        }
+        return all;
+    }
+}
@@ -0,0 +1,50 @@
+package com.clearner.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters and latency histogram for one route.
+ */
+public class RouteMetrics {
+
+    public record Snapshot(String method, String path, long requests, long clientErrors, long serverErrors,
+                           LatencyHistogram.Snapshot latency) {}
+
+    private final String method;
+    private final String path;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    RouteMetrics(String method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+
+    void record(int status, long nanos) {
+        requests.increment();
+        if (status >= 500) {
+            serverErrors.increment();
+        } else if (status >= 400) {
+            clientErrors.increment();
+        }
+        latency.record(nanos);
+    }
+
+    public String getMethod() { return method; }
+
+    public String getPath() { return path; }
+
+    public long getRequests() { return requests.sum(); }
+
+    public long getClientErrors() { return clientErrors.sum(); }
+
+    public long getServerErrors() { return serverErrors.sum(); }
+
+    public LatencyHistogram getLatency() { return latency; }
+
+    public Snapshot snapshot() {
+        return new Snapshot(method, path, requests.sum(), clientErrors.sum(), serverErrors.sum(), latency.snapshot());
+    }
+}
@@ -0,0 +1,10 @@
+package com.clearner.models;
+
+import java.util.List;
+
+/**
+ * A frame sent by the client on /ws. The user is bound when the socket
+ * connects, so frames do not repeat the userId. id is echoed in the ack.
+ */
+public record ChannelMessage(String type, Long id, String lessonId, Integer currentStep, boolean completed,
+                             Integer stepIndex, List<StepEventRequest> events) {}
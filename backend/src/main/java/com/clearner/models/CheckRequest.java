@@ -0,0 +1,13 @@
+package com.clearner.models;
+
+/**
+ * Body of POST /api/lessons/{course}/{id}/steps/{step}/check. userId is
+ * optional; when present the result is recorded as a task-pass or
+ * task-fail step event.
+ */
+public record CheckRequest(String userId, String code) {
+
+    public boolean isValid() {
+        return code != null;
+    }
+}
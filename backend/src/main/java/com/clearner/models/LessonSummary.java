@@ -0,0 +1,8 @@
+package com.clearner.models;
+
+/**
+ * Catalog entry for one lesson. slug is the file name used in
+ * /api/lessons/{course}/{slug}; hash changes whenever the lesson YAML does.
+ */
+public record LessonSummary(String course, String slug, String id, String topic, String title, int stepCount,
+                            String hash) {}
@@ -0,0 +1,6 @@
+package com.clearner.models;
+
+/**
+ * Body of POST /api/auth/login.
+ */
+public record LoginRequest(String displayName) {}
@@ -0,0 +1,11 @@
+package com.clearner.models;
+
+/**
+ * Body of POST /api/log/paste. The pasted content itself is not stored.
+ */
+public record PasteRequest(String userId, String lessonId, Integer stepIndex, String content) {
+
+    public boolean isValid() {
+        return userId != null && lessonId != null && stepIndex != null;
+    }
+}
@@ -0,0 +1,11 @@
+package com.clearner.models;
+
+/**
+ * Body of POST /api/progress. currentStep is boxed so a missing value can be told apart from step 0.
+ */
+public record ProgressRequest(String userId, String lessonId, Integer currentStep, boolean completed) {
+
+    public boolean isValid() {
+        return userId != null && lessonId != null && currentStep != null;
+    }
+}
@@ -0,0 +1,6 @@
+package com.clearner.models;
+
+/**
+ * A single learner interaction on a lesson step, stored in lesson_step_events.
+ */
+public record StepEvent(String userId, String lessonId, int stepIndex, StepEventType type, long createdAt) {}
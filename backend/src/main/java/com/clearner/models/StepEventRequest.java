@@ -0,0 +1,18 @@
+package com.clearner.models;
+
+/**
+ * One element of the POST /api/events array. createdAt is optional.
+ */
+public record StepEventRequest(String userId, String lessonId, Integer stepIndex, String type, Long createdAt) {
+
+    /**
+     * Convert to a StepEvent, or return null if a required field is missing or the type is unknown.
+     */
+    public StepEvent toEvent(long receivedAt) {
+        StepEventType eventType = type != null ? StepEventType.fromName(type) : null;
+        if (eventType == null || userId == null || lessonId == null || stepIndex == null) {
+            return null;
+        }
+        return new StepEvent(userId, lessonId, stepIndex, eventType, createdAt != null ? createdAt : receivedAt);
+    }
+}
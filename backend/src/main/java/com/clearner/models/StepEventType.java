@@ -0,0 +1,29 @@
+package com.clearner.models;
+
+public enum StepEventType {
+    PASTE("paste"),
+    RUN("run"),
+    TASK_PASS("task-pass"),
+    TASK_FAIL("task-fail"),
+    STEP_ENTER("step-enter");
+
+    private final String wireName;
+
+    StepEventType(String wireName) {
+        this.wireName = wireName;
+    }
+
+    public String getWireName() { return wireName; }
+
+    /**
+     * Resolve the name used by the frontend (e.g. "task-pass") or the stored name (e.g. "TASK_PASS").
+     */
+    public static StepEventType fromName(String name) {
+        for (StepEventType type : values()) {
+            if (type.wireName.equalsIgnoreCase(name) || type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -31,4 +31,8 @@ public class User {
 
     public String getSyncStatus() { return syncStatus; }
     public void setSyncStatus(String syncStatus) { this.syncStatus = syncStatus; }
+
+    public User withLastActiveAt(long lastActiveAt) {
+        return new User(id, displayName, createdAt, lastActiveAt, syncStatus);
+    }
 }
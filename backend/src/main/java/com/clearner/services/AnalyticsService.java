@@ -0,0 +1,294 @@
+package com.clearner.services;
+
+import com.clearner.metrics.HyperLogLog;
+import com.clearner.models.StepEventType;
+import com.clearner.storage.PooledConnection;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Folds lesson_step_events into the lesson_step_stats rollup.
+ * Each pass reads only events above the stored high-watermark, aggregates
+ * them in memory per (lesson, step, event type) and merges the result into
+ * the rollup in the same transaction that advances the watermark, so every
+ * event is counted exactly once. Distinct learners are tracked with a
+ * HyperLogLog sketch per row.
+ *
+ * Event ids only ever grow in commit order because all inserts go through
+ * the single writer connection, so a watermark on id never skips a row.
+ *
+ * With sharded storage each shard keeps its own rollup and watermark, and
+ * lesson stats are merged across shards when they are read; HyperLogLog
+ * sketches merge without double counting a learner.
+ */
+public class AnalyticsService implements AutoCloseable {
+
+    /**
+     * watermarks holds the last folded event id of each shard.
+     */
+    public record Stats(long foldedEvents, long passes, long[] watermarks, double lastPassMs) {}
+
+    public record EventStats(long count, long learners, long firstEventAt, long lastEventAt) {}
+
+    public record StepStats(int stepIndex, long learners, Map<String, EventStats> events) {}
+
+    public record LessonStats(String lessonId, long learners, long events, List<StepStats> steps, long[] watermarks) {}
+
+    private record Key(String lessonId, int stepIndex, String eventType) {}
+
+    private record Row(long id, String userId, String lessonId, int stepIndex, String eventType, long createdAt) {}
+
+    private static final class Aggregate {
+        long count;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        final HyperLogLog learners = new HyperLogLog();
+    }
+
+    private static final String WATERMARK_KEY = "rollup.lesson_step_events.last_id";
+    private static final int BATCH_SIZE = 5000;
+
+    private static final String SELECT_WATERMARK = "SELECT value FROM app_meta WHERE key = ?";
+    private static final String UPSERT_WATERMARK =
+            "INSERT INTO app_meta (key, value) VALUES (?, ?) ON CONFLICT(key) DO UPDATE SET value = excluded.value";
+    private static final String SELECT_EVENTS =
+            "SELECT id, user_id, lesson_id, step_index, event_type, created_at FROM lesson_step_events " +
+            "WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_SKETCH =
+            "SELECT learner_sketch FROM lesson_step_stats WHERE lesson_id = ? AND step_index = ? AND event_type = ?";
+    private static final String UPSERT_STATS =
+            "INSERT INTO lesson_step_stats (lesson_id, step_index, event_type, event_count, learner_sketch, " +
+            "first_event_at, last_event_at) VALUES (?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT(lesson_id, step_index, event_type) DO UPDATE SET " +
+            "event_count = event_count + excluded.event_count, " +
+            "learner_sketch = excluded.learner_sketch, " +
+            "first_event_at = MIN(first_event_at, excluded.first_event_at), " +
+            "last_event_at = MAX(last_event_at, excluded.last_event_at)";
+    private static final String SELECT_LESSON =
+            "SELECT step_index, event_type, event_count, learner_sketch, first_event_at, last_event_at " +
+            "FROM lesson_step_stats WHERE lesson_id = ? ORDER BY step_index";
+
+    private final List<DatabaseService> shards;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong foldedEvents = new AtomicLong();
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLongArray watermarks;
+    private volatile long lastPassNanos;
+
+    public AnalyticsService(ShardedStorage storage, long intervalMs) {
+        this.shards = storage.shards();
+        this.watermarks = new AtomicLongArray(shards.size());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "event-rollup");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::runQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fold every event above the watermark into the rollup.
+     * Returns the number of events processed.
+     */
+    public synchronized long rollup() throws SQLException {
+        long start = System.nanoTime();
+        long total = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            total += rollup(i);
+        }
+
+        foldedEvents.addAndGet(total);
+        passes.incrementAndGet();
+        lastPassNanos = System.nanoTime() - start;
+        return total;
+    }
+
+    private long rollup(int shard) throws SQLException {
+        DatabaseService db = shards.get(shard);
+        long total = 0;
+        while (true) {
+            long from = db.read(AnalyticsService::readWatermark);
+            List<Row> events = db.read(conn -> readEvents(conn, from));
+            if (events.isEmpty()) {
+                watermarks.set(shard, from);
+                return total;
+            }
+
+            Map<Key, Aggregate> batch = aggregate(events);
+            long to = events.get(events.size() - 1).id();
+            db.transaction(conn -> {
+                merge(conn, batch);
+                PreparedStatement pstmt = conn.prepare(UPSERT_WATERMARK);
+                pstmt.setString(1, WATERMARK_KEY);
+                pstmt.setString(2, Long.toString(to));
+                pstmt.executeUpdate();
+                return null;
+            });
+
+            watermarks.set(shard, to);
+            total += events.size();
+            if (events.size() < BATCH_SIZE) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * Per-step aggregates for one lesson, read from the rollup only.
+     * Distinct learner counts are approximate.
+     */
+    public LessonStats getLessonStats(String lessonId) throws SQLException {
+        Map<Integer, Map<String, Aggregate>> steps = new TreeMap<>();
+        for (DatabaseService db : shards) {
+            db.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(SELECT_LESSON);
+                pstmt.setString(1, lessonId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        Aggregate agg = steps.computeIfAbsent(rs.getInt("step_index"), s -> new LinkedHashMap<>())
+                                .computeIfAbsent(wireName(rs.getString("event_type")), t -> new Aggregate());
+                        agg.count += rs.getLong("event_count");
+                        agg.first = Math.min(agg.first, rs.getLong("first_event_at"));
+                        agg.last = Math.max(agg.last, rs.getLong("last_event_at"));
+                        agg.learners.merge(HyperLogLog.fromBytes(rs.getBytes("learner_sketch")));
+                    }
+                }
+                return null;
+            });
+        }
+
+        HyperLogLog lessonLearners = new HyperLogLog();
+        List<StepStats> stepStats = new ArrayList<>(steps.size());
+        long events = 0;
+        for (Map.Entry<Integer, Map<String, Aggregate>> step : steps.entrySet()) {
+            HyperLogLog stepLearners = new HyperLogLog();
+            Map<String, EventStats> byType = new LinkedHashMap<>();
+            for (Map.Entry<String, Aggregate> type : step.getValue().entrySet()) {
+                Aggregate agg = type.getValue();
+                events += agg.count;
+                stepLearners.merge(agg.learners);
+                byType.put(type.getKey(), new EventStats(agg.count, agg.learners.estimate(), agg.first, agg.last));
+            }
+            lessonLearners.merge(stepLearners);
+            stepStats.add(new StepStats(step.getKey(), stepLearners.estimate(), byType));
+        }
+        return new LessonStats(lessonId, lessonLearners.estimate(), events, stepStats, watermarks());
+    }
+
+    public Stats getStats() {
+        return new Stats(foldedEvents.get(), passes.get(), watermarks(), lastPassNanos / 1_000_000.0);
+    }
+
+    private long[] watermarks() {
+        long[] copy = new long[watermarks.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = watermarks.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Stop the schedule and fold whatever has been written so far.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        runQuietly();
+    }
+
+    private void runQuietly() {
+        try {
+            rollup();
+        } catch (Exception e) {
+            System.err.println("Step event rollup failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static long readWatermark(PooledConnection conn) throws SQLException {
+        PreparedStatement pstmt = conn.prepare(SELECT_WATERMARK);
+        pstmt.setString(1, WATERMARK_KEY);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? Long.parseLong(rs.getString(1)) : 0;
+        }
+    }
+
+    private static List<Row> readEvents(PooledConnection conn, long from) throws SQLException {
+        PreparedStatement pstmt = conn.prepare(SELECT_EVENTS);
+        pstmt.setLong(1, from);
+        pstmt.setInt(2, BATCH_SIZE);
+        List<Row> events = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                events.add(new Row(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getString(5),
+                        rs.getLong(6)));
+            }
+        }
+        return events;
+    }
+
+    private static Map<Key, Aggregate> aggregate(List<Row> events) {
+        Map<Key, Aggregate> batch = new HashMap<>();
+        for (Row event : events) {
+            Aggregate agg = batch.computeIfAbsent(new Key(event.lessonId(), event.stepIndex(), event.eventType()),
+                    k -> new Aggregate());
+            agg.count++;
+            agg.first = Math.min(agg.first, event.createdAt());
+            agg.last = Math.max(agg.last, event.createdAt());
+            agg.learners.add(event.userId());
+        }
+        return batch;
+    }
+
+    private static void merge(PooledConnection conn, Map<Key, Aggregate> batch) throws SQLException {
+        PreparedStatement select = conn.prepare(SELECT_SKETCH);
+        PreparedStatement upsert = conn.prepare(UPSERT_STATS);
+        for (Map.Entry<Key, Aggregate> entry : batch.entrySet()) {
+            Key key = entry.getKey();
+            Aggregate agg = entry.getValue();
+
+            select.setString(1, key.lessonId());
+            select.setInt(2, key.stepIndex());
+            select.setString(3, key.eventType());
+            try (ResultSet rs = select.executeQuery()) {
+                if (rs.next()) {
+                    agg.learners.merge(HyperLogLog.fromBytes(rs.getBytes(1)));
+                }
+            }
+
+            upsert.setString(1, key.lessonId());
+            upsert.setInt(2, key.stepIndex());
+            upsert.setString(3, key.eventType());
+            upsert.setLong(4, agg.count);
+            upsert.setBytes(5, agg.learners.toBytes());
+            upsert.setLong(6, agg.first);
+            upsert.setLong(7, agg.last);
+            upsert.addBatch();
+        }
+        upsert.executeBatch();
+    }
+
+    private static String wireName(String storedType) {
+        StepEventType type = StepEventType.fromName(storedType);
+        return type != null ? type.getWireName() : storedType;
+    }
+}
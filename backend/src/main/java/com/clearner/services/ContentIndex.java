@@ -0,0 +1,213 @@
+package com.clearner.services;
+
+import com.clearner.Json;
+import com.clearner.models.LessonSummary;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Catalog of every lesson under content/{course}/{slug}.yaml on the classpath.
+ * Built once by scanning and parsing the files in parallel; the catalog and
+ * per-course listings are serialized up front so requests only copy bytes.
+ */
+public class ContentIndex {
+
+    private static final String ROOT = "/content";
+    private static final String KEY_PATTERN = "[a-zA-Z0-9_-]+";
+    private static final Comparator<LessonSummary> ORDER =
+            Comparator.comparing(LessonSummary::course).thenComparing(LessonSummary::slug);
+
+    private final List<LessonSummary> lessons;
+    private final LessonCache.Entry catalog;
+    private final Map<String, LessonCache.Entry> courses;
+
+    private ContentIndex(List<LessonSummary> lessons) throws JsonProcessingException {
+        this.lessons = Collections.unmodifiableList(lessons);
+        this.catalog = LessonCache.Entry.of(Json.MAPPER.writeValueAsBytes(lessons));
+
+        Map<String, List<LessonSummary>> byCourse = new LinkedHashMap<>();
+        for (LessonSummary lesson : lessons) {
+            byCourse.computeIfAbsent(lesson.course(), c -> new ArrayList<>()).add(lesson);
+        }
+        Map<String, LessonCache.Entry> courseEntries = new LinkedHashMap<>();
+        for (Map.Entry<String, List<LessonSummary>> course : byCourse.entrySet()) {
+            courseEntries.put(course.getKey(), LessonCache.Entry.of(Json.MAPPER.writeValueAsBytes(course.getValue())));
+        }
+        this.courses = Collections.unmodifiableMap(courseEntries);
+    }
+
+    /**
+     * Scan the classpath content directory, whether it is on disk or inside the JAR.
+     */
+    public static ContentIndex build(ObjectMapper yamlMapper) {
+        URL root = ContentIndex.class.getResource(ROOT);
+        if (root == null) {
+            return empty();
+        }
+
+        try {
+            URI uri = root.toURI();
+            if ("jar".equals(uri.getScheme())) {
+                try (FileSystem jar = FileSystems.newFileSystem(uri, Map.of())) {
+                    return build(jar.getPath(ROOT), yamlMapper);
+                }
+            }
+            return build(Path.of(uri), yamlMapper);
+        } catch (IOException | URISyntaxException e) {
+            System.err.println("Failed to build content index: " + e.getMessage());
+            e.printStackTrace();
+            return empty();
+        }
+    }
+
+    /**
+     * Scan a content directory laid out as {course}/{slug}.yaml.
+     */
+    public static ContentIndex build(Path root, ObjectMapper yamlMapper) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root, 2)) {
+            files = walk.filter(p -> p.getNameCount() - root.getNameCount() == 2)
+                    .filter(p -> p.getFileName().toString().endsWith(".yaml"))
+                    .toList();
+        }
+
+        List<LessonSummary> lessons = files.parallelStream()
+                .map(file -> summarize(root, file, yamlMapper))
+                .filter(Objects::nonNull)
+                .sorted(ORDER)
+                .toList();
+        return of(lessons);
+    }
+
+    /**
+     * A copy of this index with one lesson added or replaced.
+     */
+    public ContentIndex with(LessonSummary lesson) {
+        List<LessonSummary> updated = new ArrayList<>(lessons.size() + 1);
+        for (LessonSummary existing : lessons) {
+            if (!sameLesson(existing, lesson.course(), lesson.slug())) {
+                updated.add(existing);
+            }
+        }
+        updated.add(lesson);
+        updated.sort(ORDER);
+        return of(updated);
+    }
+
+    /**
+     * A copy of this index without the given lesson.
+     */
+    public ContentIndex without(String course, String slug) {
+        List<LessonSummary> updated = new ArrayList<>(lessons.size());
+        for (LessonSummary existing : lessons) {
+            if (!sameLesson(existing, course, slug)) {
+                updated.add(existing);
+            }
+        }
+        return of(updated);
+    }
+
+    public LessonSummary find(String course, String slug) {
+        for (LessonSummary lesson : lessons) {
+            if (sameLesson(lesson, course, slug)) {
+                return lesson;
+            }
+        }
+        return null;
+    }
+
+    public List<LessonSummary> getLessons() {
+        return lessons;
+    }
+
+    /**
+     * All lessons as precomputed JSON.
+     */
+    public LessonCache.Entry getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Lessons of one course as precomputed JSON, or null for an unknown course.
+     */
+    public LessonCache.Entry getCourse(String course) {
+        return courses.get(course);
+    }
+
+    private static LessonSummary summarize(Path root, Path file, ObjectMapper yamlMapper) {
+        String course = root.relativize(file).getName(0).toString();
+        String name = file.getFileName().toString();
+        String slug = name.substring(0, name.length() - ".yaml".length());
+        if (!isKey(course) || !isKey(slug)) {
+            // Not reachable through /api/lessons/{course}/{id}
+            return null;
+        }
+        try {
+            byte[] yaml = Files.readAllBytes(file);
+            return summarize(course, slug, yaml, yamlMapper.readTree(yaml));
+        } catch (IOException e) {
+            System.err.println("Skipping unreadable lesson " + course + "/" + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static LessonSummary summarize(String course, String slug, byte[] yaml, JsonNode lesson) {
+        JsonNode steps = lesson.path("steps");
+        return new LessonSummary(course, slug,
+                lesson.path("id").asText(slug),
+                lesson.path("topic").asText(""),
+                lesson.path("title").asText(""),
+                steps.isArray() ? steps.size() : 0,
+                hash(yaml));
+    }
+
+    static boolean isKey(String value) {
+        return value.matches(KEY_PATTERN);
+    }
+
+    private static boolean sameLesson(LessonSummary lesson, String course, String slug) {
+        return lesson.course().equals(course) && lesson.slug().equals(slug);
+    }
+
+    private static ContentIndex of(List<LessonSummary> lessons) {
+        try {
+            return new ContentIndex(lessons);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ContentIndex empty() {
+        return of(List.of());
+    }
+}
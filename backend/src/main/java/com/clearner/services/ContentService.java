@@ -1,29 +1,176 @@
 package com.clearner.services;
 
+import com.clearner.Json;
+import com.clearner.models.LessonSummary;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 public class ContentService {
+    private static final int DEFAULT_CACHE_SIZE = 256;
+
+    /**
+     * A lesson that was reloaded from the content directory. lesson is null
+     * when the file was deleted.
+     */
+    public record ContentChange(String course, String slug, LessonSummary lesson) {}
+
     private final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
-    private final ObjectMapper jsonMapper = new ObjectMapper();
+    private final ObjectMapper jsonMapper = Json.MAPPER;
+    private final LessonCache cache;
+    private final Path contentDir;
+    private final List<Consumer<ContentChange>> listeners = new CopyOnWriteArrayList<>();
+    private volatile ContentIndex index;
+
+    public ContentService() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public ContentService(int cacheSize) {
+        this(cacheSize, null);
+    }
+
+    /**
+     * Serve lessons from an external directory instead of the classpath,
+     * e.g. backend/src/main/resources/content while authoring.
+     */
+    public ContentService(Path contentDir) {
+        this(DEFAULT_CACHE_SIZE, contentDir);
+    }
+
+    public ContentService(int cacheSize, Path contentDir) {
+        this.cache = new LessonCache(cacheSize);
+        this.contentDir = contentDir;
+        this.index = contentDir != null ? buildIndex(contentDir) : ContentIndex.build(yamlMapper);
+    }
 
     public String getLesson(String course, String lessonId) {
+        LessonCache.Entry entry = getCachedLesson(course, lessonId);
+        return entry != null ? new String(entry.json(), StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Get the precompiled JSON, gzip copy and ETag for a lesson.
+     * The YAML is parsed only on the first request for each lesson.
+     */
+    public LessonCache.Entry getCachedLesson(String course, String lessonId) {
+        // Sanitize input to prevent traversal
+        String key = sanitize(course) + "/" + sanitize(lessonId);
+        return cache.get(key, this::loadLesson);
+    }
+
+    /**
+     * Catalog of all lessons, built at startup and updated on reload.
+     */
+    public ContentIndex getIndex() {
+        return index;
+    }
+
+    public LessonCache getCache() {
+        return cache;
+    }
+
+    public Path getContentDir() {
+        return contentDir;
+    }
+
+    public void addListener(Consumer<ContentChange> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Re-read one lesson from the content directory and swap it into the
+     * cache and the index. A file that fails to parse keeps the previous
+     * version so a half-saved edit does not take the lesson down.
+     */
+    public synchronized void reload(String course, String slug) {
+        if (contentDir == null || !ContentIndex.isKey(course) || !ContentIndex.isKey(slug)) {
+            return;
+        }
+
+        String key = course + "/" + slug;
+        byte[] yaml;
+        try {
+            yaml = Files.readAllBytes(contentDir.resolve(course).resolve(slug + ".yaml"));
+        } catch (NoSuchFileException e) {
+            if (index.find(course, slug) != null) {
+                cache.invalidate(key);
+                index = index.without(course, slug);
+                publish(new ContentChange(course, slug, null));
+            }
+            return;
+        } catch (IOException e) {
+            System.err.println("Failed to read lesson " + key + ": " + e.getMessage());
+            return;
+        }
+
         try {
-            // Sanitize input to prevent traversal
-            String filename = lessonId.replaceAll("[^a-zA-Z0-9-]", "") + ".yaml";
-            InputStream is = getClass().getResourceAsStream("/content/" + course + "/" + filename);
+            JsonNode lesson = yamlMapper.readTree(yaml);
+            LessonSummary summary = ContentIndex.summarize(course, slug, yaml, lesson);
+            LessonSummary previous = index.find(course, slug);
+            if (previous != null && previous.hash().equals(summary.hash())) {
+                return;
+            }
+
+            cache.put(key, LessonCache.Entry.of(jsonMapper.writeValueAsBytes(lesson)));
+            index = index.with(summary);
+            publish(new ContentChange(course, slug, summary));
+        } catch (IOException e) {
+            System.err.println("Keeping previous version of " + key + ", failed to parse: " + e.getMessage());
+        }
+    }
+
+    private void publish(ContentChange change) {
+        for (Consumer<ContentChange> listener : listeners) {
+            try {
+                listener.accept(change);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private ContentIndex buildIndex(Path dir) {
+        try {
+            return ContentIndex.build(dir, yamlMapper);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to index content directory " + dir, e);
+        }
+    }
+
+    private LessonCache.Entry loadLesson(String key) {
+        try (InputStream is = open(key + ".yaml")) {
             if (is == null) {
                 return null;
             }
-            // Read YAML and convert to JSON object
+            // Read YAML and convert to JSON bytes
             Object obj = yamlMapper.readValue(is, Object.class);
-            // Convert to JSON string
-            return jsonMapper.writeValueAsString(obj);
+            return LessonCache.Entry.of(jsonMapper.writeValueAsBytes(obj));
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
+
+    private InputStream open(String path) throws IOException {
+        if (contentDir == null) {
+            return getClass().getResourceAsStream("/content/" + path);
+        }
+        Path file = contentDir.resolve(path);
+        return Files.isRegularFile(file) ? Files.newInputStream(file) : null;
+    }
+
+    private static String sanitize(String value) {
+        return value.replaceAll("[^a-zA-Z0-9_-]", "");
+    }
 }
@@ -0,0 +1,119 @@
+package com.clearner.services;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches an external content directory and reloads lessons as they change.
+ * Events are collected for a short quiet period first, so an editor that
+ * writes a file in several steps triggers a single reload per lesson.
+ */
+public class ContentWatcher implements AutoCloseable {
+
+    private static final long QUIET_PERIOD_MS = 100;
+
+    private final ContentService content;
+    private final Path root;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    public ContentWatcher(ContentService content) throws IOException {
+        this.content = content;
+        this.root = content.getContentDir();
+        this.watcher = root.getFileSystem().newWatchService();
+
+        register(root);
+        try (Stream<Path> courses = Files.list(root)) {
+            for (Path course : courses.filter(Files::isDirectory).toList()) {
+                register(course);
+            }
+        }
+
+        this.thread = new Thread(this::run, "content-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void register(Path dir) throws IOException {
+        WatchKey key = dir.register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        keys.put(key, dir);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = watcher.take();
+                while (key != null) {
+                    collect(key, changed);
+                    key = watcher.poll(QUIET_PERIOD_MS, TimeUnit.MILLISECONDS);
+                }
+                for (Path file : changed) {
+                    String course = root.relativize(file).getName(0).toString();
+                    String name = file.getFileName().toString();
+                    content.reload(course, name.substring(0, name.length() - ".yaml".length()));
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Shutting down
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+
+            if (dir.equals(root)) {
+                // A new course directory: watch it and pick up anything already copied in
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    try {
+                        register(path);
+                        try (Stream<Path> files = Files.list(path)) {
+                            files.filter(ContentWatcher::isLesson).forEach(changed::add);
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Failed to watch " + path + ": " + e.getMessage());
+                    }
+                }
+            } else if (isLesson(path)) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    private static boolean isLesson(Path path) {
+        return path.getFileName().toString().endsWith(".yaml");
+    }
+}
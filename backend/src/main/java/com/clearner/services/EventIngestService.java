@@ -0,0 +1,219 @@
+package com.clearner.services;
+
+import com.clearner.models.StepEvent;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous ingest pipeline for lesson_step_events.
+ * Request threads only append to a bounded lock-free queue; a single
+ * background writer drains it and stores events with multi-row INSERTs,
+ * one transaction per batch. When the queue is full new events are
+ * rejected so callers can back off. A batch that fails to write is kept
+ * and retried with backoff; it is dropped and counted as failed only
+ * after MAX_WRITE_ATTEMPTS, and keeps its room in the queue until then.
+ */
+public class EventIngestService implements AutoCloseable {
+
+    public enum Result { ACCEPTED, INVALID, QUEUE_FULL }
+
+    public record Stats(long accepted, long rejected, long written, long failed, long batches, int queued) {
+
+        /**
+         * Totals over several ingest services, e.g. one per shard.
+         */
+        public static Stats sum(List<Stats> all) {
+            long accepted = 0;
+            long rejected = 0;
+            long written = 0;
+            long failed = 0;
+            long batches = 0;
+            int queued = 0;
+            for (Stats stats : all) {
+                accepted += stats.accepted();
+                rejected += stats.rejected();
+                written += stats.written();
+                failed += stats.failed();
+                batches += stats.batches();
+                queued += stats.queued();
+            }
+            return new Stats(accepted, rejected, written, failed, batches, queued);
+        }
+    }
+
+    private static final int ROWS_PER_INSERT = 100;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+    private static final long RETRY_BASE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final String INSERT_PREFIX =
+            "INSERT INTO lesson_step_events (user_id, lesson_id, step_index, event_type, created_at, sync_status) VALUES ";
+    private static final String FULL_INSERT = insertSql(ROWS_PER_INSERT);
+
+    private final DatabaseService db;
+    private final int capacity;
+    private final int maxBatch;
+    private final Queue<StepEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public EventIngestService(DatabaseService db, int capacity, int maxBatch) {
+        this.db = db;
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        this.writer = new Thread(this::run, "event-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue events for writing. Either all events are accepted or, if the
+     * queue has no room for them, none are.
+     */
+    public boolean submit(List<StepEvent> events) {
+        if (!reserve(events.size())) {
+            return false;
+        }
+        enqueue(events);
+        return true;
+    }
+
+    /**
+     * Claim room for count events without queueing them yet, so a batch
+     * split over several services can be accepted by all or none. Follow
+     * with enqueue, or release if another service had no room.
+     */
+    public boolean reserve(int count) {
+        while (true) {
+            int current = size.get();
+            if (current + count > capacity) {
+                rejected.addAndGet(count);
+                return false;
+            }
+            if (size.compareAndSet(current, current + count)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(int count) {
+        size.addAndGet(-count);
+    }
+
+    /**
+     * Queue events whose room was claimed with reserve.
+     */
+    public void enqueue(List<StepEvent> events) {
+        queue.addAll(events);
+        accepted.addAndGet(events.size());
+        if (size.get() >= maxBatch) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(accepted.get(), rejected.get(), written.get(), failed.get(), batches.get(), size.get());
+    }
+
+    /**
+     * Stop accepting work and write whatever is still queued.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<StepEvent> batch = new ArrayList<>(maxBatch);
+        int attempts = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            if (batch.isEmpty()) {
+                StepEvent event;
+                while (batch.size() < maxBatch && (event = queue.poll()) != null) {
+                    batch.add(event);
+                }
+                if (batch.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+            }
+
+            if (write(batch)) {
+                attempts = 0;
+            } else if (++attempts < MAX_WRITE_ATTEMPTS) {
+                // Keep the batch; the clients were already told it was accepted
+                LockSupport.parkNanos(RETRY_BASE_NANOS << attempts);
+                continue;
+            } else {
+                attempts = 0;
+                failed.addAndGet(batch.size());
+                System.err.println("Dropping " + batch.size() + " step events after " + MAX_WRITE_ATTEMPTS +
+                        " failed writes");
+            }
+            size.addAndGet(-batch.size());
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write one batch in a transaction. Returns false if it failed.
+     */
+    private boolean write(List<StepEvent> batch) {
+        try {
+            db.transaction(conn -> {
+                for (int from = 0; from < batch.size(); from += ROWS_PER_INSERT) {
+                    int to = Math.min(from + ROWS_PER_INSERT, batch.size());
+                    int rows = to - from;
+                    PreparedStatement pstmt = conn.prepare(rows == ROWS_PER_INSERT ? FULL_INSERT : insertSql(rows));
+                    int param = 1;
+                    for (int i = from; i < to; i++) {
+                        StepEvent event = batch.get(i);
+                        pstmt.setString(param++, event.userId());
+                        pstmt.setString(param++, event.lessonId());
+                        pstmt.setInt(param++, event.stepIndex());
+                        pstmt.setString(param++, event.type().name());
+                        pstmt.setLong(param++, event.createdAt());
+                    }
+                    pstmt.executeUpdate();
+                }
+                return null;
+            });
+            written.addAndGet(batch.size());
+            batches.incrementAndGet();
+            return true;
+        } catch (Exception e) {
+            System.err.println("Failed to write " + batch.size() + " step events, will retry: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows * 24);
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, 'DIRTY')");
+        }
+        return sql.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package com.clearner.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bounded LRU cache of lessons that have already been converted to JSON.
+ * Each entry keeps the raw JSON bytes, a gzip copy and a strong ETag for
+ * each so handlers can answer without touching YAML again.
+ */
+public class LessonCache {
+
+    public record Entry(byte[] json, byte[] gzip, String etag) {
+
+        public static Entry of(byte[] json) {
+            return new Entry(json, compress(json), hash(json));
+        }
+
+        /**
+         * The ETag of the gzip or the identity body. They are different
+         * representations, so they must not share a strong ETag.
+         */
+        public String etag(boolean gzipped) {
+            return gzipped ? etag.substring(0, etag.length() - 1) + "-gz\"" : etag;
+        }
+
+        /**
+         * True if the If-None-Match header value matches the ETag of the
+         * gzip or the identity body.
+         */
+        public boolean matches(String ifNoneMatch, boolean gzipped) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            String current = etag(gzipped);
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(current)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries;
+    private final Map<String, Entry> loading = new ConcurrentHashMap<>();
+    // Bumped by put and invalidate, guarded by entries; keys that were never replaced have none
+    private final Map<String, Long> generations = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public LessonCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > LessonCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached entry for key, loading it at most once per key when
+     * several requests miss at the same time. A null result from the loader
+     * is not cached, and neither is one that a put or invalidate overtook
+     * while it was loading, since it may hold the previous version.
+     */
+    public Entry get(String key, Function<String, Entry> loader) {
+        Entry entry;
+        long generation;
+        synchronized (entries) {
+            entry = entries.get(key);
+            generation = generations.getOrDefault(key, 0L);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        misses.incrementAndGet();
+        // A load that finished after the check above has already been cached
+        entry = loading.computeIfAbsent(key, k -> {
+            Entry cached = cached(k);
+            return cached != null ? cached : loader.apply(k);
+        });
+        if (entry == null) {
+            return null;
+        }
+        Entry result;
+        synchronized (entries) {
+            if (generations.getOrDefault(key, 0L) == generation) {
+                entries.put(key, entry);
+                result = entry;
+            } else {
+                Entry current = entries.get(key);
+                result = current != null ? current : entry;
+            }
+        }
+        // Only after caching, so a concurrent miss finds the entry in one place or the other
+        loading.remove(key, entry);
+        return result;
+    }
+
+    private Entry cached(String key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    public void put(String key, Entry entry) {
+        synchronized (entries) {
+            generations.merge(key, 1L, Long::sum);
+            entries.put(key, entry);
+        }
+        loading.remove(key);
+    }
+
+    public void invalidate(String key) {
+        synchronized (entries) {
+            generations.merge(key, 1L, Long::sum);
+            entries.remove(key);
+        }
+        loading.remove(key);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() { return hits.get(); }
+
+    public long getMisses() { return misses.get(); }
+
+    private static byte[] compress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to gzip lesson", e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
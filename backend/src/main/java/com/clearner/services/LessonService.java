@@ -1,5 +1,119 @@
 package com.clearner.services;
 
+import com.clearner.Json;
+import com.clearner.models.CheckRequest;
+import com.clearner.models.LessonSummary;
+import com.clearner.validation.AnswerMatcher;
+import com.clearner.validation.CheckResult;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks learners' task answers on the server.
+ * Every step's task.expected is compiled into an AnswerMatcher when the
+ * lesson is loaded, and again when it is reloaded, so a check only
+ * tokenizes the submitted code and walks the compiled pattern. Lessons
+ * are keyed by their catalog course and slug; any other spelling of a
+ * lesson path is not found.
+ */
 public class LessonService {
-    // Placeholder for lesson logic
+
+    /**
+     * Compiled tasks of one lesson, indexed like its steps. A step without
+     * a task has a null matcher.
+     */
+    private record CompiledLesson(String lessonId, String[] stepIds, AnswerMatcher[] matchers) {}
+
+    // A task without an expected answer passes on Run, as in the browser
+    private static final AnswerMatcher ANY_ANSWER = code -> CheckResult.PASS;
+    private static final int MAX_CODE_CHARS = 64 * 1024;
+
+    private final ContentService content;
+    private final PersistenceService persistence;
+    private final Map<String, CompiledLesson> lessons = new ConcurrentHashMap<>();
+
+    public LessonService(ContentService content, PersistenceService persistence) {
+        this.content = content;
+        this.persistence = persistence;
+        for (LessonSummary lesson : content.getIndex().getLessons()) {
+            compile(lesson.course(), lesson.slug());
+        }
+        content.addListener(change -> {
+            if (change.lesson() == null) {
+                lessons.remove(change.course() + "/" + change.slug());
+            } else {
+                compile(change.course(), change.slug());
+            }
+        });
+    }
+
+    /**
+     * Check an answer for a step, given by index or step id. Returns null
+     * when the lesson, the step or its task does not exist.
+     */
+    public CheckResult check(String course, String slug, String step, CheckRequest request) {
+        CompiledLesson lesson = lessons.get(course + "/" + slug);
+        if (lesson == null) {
+            return null;
+        }
+        int stepIndex = stepIndex(lesson, step);
+        if (stepIndex < 0 || lesson.matchers()[stepIndex] == null) {
+            return null;
+        }
+
+        if (request.code().length() > MAX_CODE_CHARS) {
+            return CheckResult.fail("Answer is longer than " + MAX_CODE_CHARS + " characters");
+        }
+        CheckResult result = lesson.matchers()[stepIndex].check(request.code());
+        if (request.userId() != null) {
+            persistence.logTaskCheck(request.userId(), lesson.lessonId(), stepIndex, result.passed());
+        }
+        return result;
+    }
+
+    private void compile(String course, String slug) {
+        String key = course + "/" + slug;
+        LessonCache.Entry entry = content.getCachedLesson(course, slug);
+        if (entry == null) {
+            lessons.remove(key);
+            return;
+        }
+
+        try {
+            JsonNode lesson = Json.MAPPER.readTree(entry.json());
+            JsonNode steps = lesson.path("steps");
+            String[] stepIds = new String[steps.size()];
+            AnswerMatcher[] matchers = new AnswerMatcher[steps.size()];
+            for (int i = 0; i < steps.size(); i++) {
+                JsonNode step = steps.get(i);
+                stepIds[i] = step.path("id").asText(null);
+                JsonNode task = step.path("task");
+                if (task.isObject()) {
+                    JsonNode expected = task.path("expected");
+                    matchers[i] = expected.isTextual() ? AnswerMatcher.compile(expected.asText()) : ANY_ANSWER;
+                }
+            }
+            lessons.put(key, new CompiledLesson(lesson.path("id").asText(slug), stepIds, matchers));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to compile tasks for " + key + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static int stepIndex(CompiledLesson lesson, String step) {
+        try {
+            int index = Integer.parseInt(step);
+            return index >= 0 && index < lesson.matchers().length ? index : -1;
+        } catch (NumberFormatException e) {
+            for (int i = 0; i < lesson.stepIds().length; i++) {
+                if (step.equals(lesson.stepIds()[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
 }
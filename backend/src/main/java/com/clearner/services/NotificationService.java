@@ -0,0 +1,520 @@
+package com.clearner.services;
+
+import com.clearner.Json;
+import com.clearner.integrations.NotificationProvider;
+import com.clearner.integrations.NotificationProvider.Notification;
+import com.clearner.models.ProgressRequest;
+import com.clearner.storage.PooledConnection;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound notification dispatcher for external_notifications.
+ * Request threads only put notifications on a bounded in-memory queue. The
+ * dispatcher thread stores them, claims PENDING rows per provider (marking
+ * them SENDING), hands the batches to a small sender pool and records the
+ * outcome of the whole pass in one transaction.
+ *
+ * Each provider has a token bucket that caps how many rows are claimed per
+ * second and a circuit breaker that stops claiming after repeated failures
+ * and lets a single batch through once the cool-down has passed. Failed
+ * rows are retried with exponential backoff from their last failure,
+ * kept in next_attempt_at, and end up FAILED after MAX_ATTEMPTS.
+ * Delivery is at least once: rows left SENDING by a crash are sent again
+ * on start, and rows whose outcome could not be recorded are put back to
+ * PENDING, retrying on every pass until that succeeds.
+ */
+public class NotificationService implements AutoCloseable {
+
+    public record ProviderStats(String circuit, int consecutiveFailures, long sent, long failedBatches,
+                                double permitsPerSecond) {}
+
+    public record Stats(long enqueued, long dropped, long stored, long sent, long failed, int queued,
+                        Map<String, ProviderStats> providers) {}
+
+    private record Pending(String provider, String message, String dedupeKey, long createdAt) {}
+
+    private record LessonCompleted(String type, String userId, String lessonId, long completedAt) {}
+
+    private enum Outcome { SENT, FAILED, RELEASED }
+
+    private record Result(Outcome outcome, List<Notification> batch) {}
+
+    private static final int QUEUE_CAPACITY = 10_000;
+    private static final int CLAIM_ROWS = 1000;
+    private static final int SENDERS = 4;
+    private static final int MAX_ATTEMPTS = 10;
+    private static final long RETRY_BASE_MS = 5000;
+    private static final int BREAKER_THRESHOLD = 5;
+    private static final long BREAKER_OPEN_MS = 30_000;
+
+    private static final String INSERT =
+            "INSERT OR IGNORE INTO external_notifications (provider, message, status, created_at, dedupe_key) " +
+            "VALUES (?, ?, 'PENDING', ?, ?)";
+    private static final String SELECT_PENDING =
+            "SELECT id, message, created_at FROM external_notifications " +
+            "WHERE status = 'PENDING' AND provider = ? AND next_attempt_at <= ? " +
+            "ORDER BY id LIMIT ?";
+    private static final String MARK_SENDING = "UPDATE external_notifications SET status = 'SENDING' WHERE id = ?";
+    private static final String MARK_SENT =
+            "UPDATE external_notifications SET status = 'SENT', sent_at = ? WHERE id = ?";
+    private static final String MARK_FAILED =
+            "UPDATE external_notifications SET attempts = attempts + 1, next_attempt_at = ? + (? << attempts), " +
+            "status = CASE WHEN attempts + 1 >= ? THEN 'FAILED' ELSE 'PENDING' END WHERE id = ?";
+    private static final String RELEASE =
+            "UPDATE external_notifications SET status = 'PENDING' WHERE id = ? AND status = 'SENDING'";
+    private static final String RECOVER =
+            "UPDATE external_notifications SET status = 'PENDING' WHERE status = 'SENDING'";
+
+    private final DatabaseService db;
+    private final Map<String, Channel> channels = new LinkedHashMap<>();
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final long intervalMs;
+    private final long breakerOpenMs;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService senders;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // Claimed rows whose outcome was not recorded; only touched by the dispatcher thread
+    private final List<Long> stranded = new ArrayList<>();
+
+    public NotificationService(DatabaseService db, long intervalMs) {
+        this(db, intervalMs, BREAKER_OPEN_MS);
+    }
+
+    NotificationService(DatabaseService db, long intervalMs, long breakerOpenMs) {
+        this.db = db;
+        this.intervalMs = intervalMs;
+        this.breakerOpenMs = breakerOpenMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "notification-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.senders = Executors.newFixedThreadPool(SENDERS, r -> {
+            Thread t = new Thread(r, "notification-sender");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Deliver rows stored under provider.name() through provider, at most
+     * permitsPerSecond notifications per second. Register before start().
+     */
+    public void register(NotificationProvider provider, double permitsPerSecond) {
+        channels.put(provider.name(), new Channel(provider, new RateLimiter(permitsPerSecond, intervalMs),
+                new CircuitBreaker(BREAKER_THRESHOLD, breakerOpenMs)));
+    }
+
+    public void start() {
+        if (channels.isEmpty()) {
+            return;
+        }
+        try {
+            int recovered = db.write(conn -> conn.prepare(RECOVER).executeUpdate());
+            if (recovered > 0) {
+                System.out.println("Resending " + recovered + " notifications left in flight");
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to recover in-flight notifications: " + e.getMessage());
+        }
+        scheduler.scheduleWithFixedDelay(this::runQuietly, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a notification without touching the database. message is
+     * serialized as JSON; notifications with a dedupeKey that is already
+     * stored are dropped. Returns false when the queue is full.
+     */
+    public boolean enqueue(String provider, Object message, String dedupeKey) {
+        String json;
+        try {
+            json = Json.MAPPER.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            System.err.println("Invalid notification for " + provider + ": " + e.getMessage());
+            return false;
+        }
+        if (!queue.offer(new Pending(provider, json, dedupeKey, System.currentTimeMillis()))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        enqueued.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Notify every registered provider that a learner completed a lesson,
+     * once per (provider, learner, lesson).
+     */
+    public void lessonCompleted(ProgressRequest request) {
+        LessonCompleted message = new LessonCompleted("lesson-completed", request.userId(), request.lessonId(),
+                System.currentTimeMillis());
+        for (String provider : channels.keySet()) {
+            enqueue(provider, message, "lesson-completed/" + provider + "/" + request.userId() + "/" + request.lessonId());
+        }
+    }
+
+    /**
+     * Run one dispatch pass now and wait for it.
+     */
+    public void dispatchNow() throws Exception {
+        scheduler.submit(() -> {
+            dispatch();
+            return null;
+        }).get();
+    }
+
+    public Stats getStats() {
+        Map<String, ProviderStats> providers = new LinkedHashMap<>();
+        for (Channel channel : channels.values()) {
+            providers.put(channel.provider.name(), channel.stats());
+        }
+        return new Stats(enqueued.get(), dropped.get(), stored.get(), sent.get(), failed.get(), queue.size(),
+                providers);
+    }
+
+    /**
+     * Stop dispatching and store whatever is still queued, so it is sent on
+     * the next start.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(15, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        senders.shutdownNow();
+        try {
+            store();
+        } catch (SQLException e) {
+            System.err.println("Failed to store queued notifications: " + e.getMessage());
+        }
+    }
+
+    private void runQuietly() {
+        try {
+            dispatch();
+        } catch (Exception e) {
+            System.err.println("Notification dispatch failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void dispatch() throws SQLException, InterruptedException {
+        store();
+        releaseStranded();
+
+        List<List<Notification>> batches = new ArrayList<>();
+        List<Future<Result>> inFlight = new ArrayList<>();
+        try {
+            for (Channel channel : channels.values()) {
+                int limit = channel.claimLimit();
+                if (limit == 0) {
+                    continue;
+                }
+                List<Notification> claimed = db.transaction(conn -> claim(conn, channel.provider.name(), limit));
+                channel.limiter.take(claimed.size());
+
+                int batchSize = Math.max(1, channel.provider.maxBatchSize());
+                for (int from = 0; from < claimed.size(); from += batchSize) {
+                    List<Notification> batch = claimed.subList(from, Math.min(from + batchSize, claimed.size()));
+                    batches.add(batch);
+                    inFlight.add(senders.submit(() -> channel.send(batch)));
+                }
+            }
+            if (inFlight.isEmpty()) {
+                return;
+            }
+
+            List<Result> results = new ArrayList<>(inFlight.size());
+            for (int i = 0; i < inFlight.size(); i++) {
+                try {
+                    results.add(inFlight.get(i).get());
+                } catch (ExecutionException e) {
+                    // Channel.send catches provider errors; anything else is a bug, so log it and give the
+                    // rows back
+                    e.getCause().printStackTrace();
+                    results.add(new Result(Outcome.RELEASED, batches.get(i)));
+                }
+            }
+            record(results);
+        } catch (SQLException | InterruptedException | RuntimeException e) {
+            // Nothing was recorded, so every claimed row is still SENDING
+            for (List<Notification> batch : batches) {
+                for (Notification notification : batch) {
+                    stranded.add(notification.id());
+                }
+            }
+            releaseStranded();
+            throw e;
+        }
+    }
+
+    /**
+     * Put rows claimed by a failed pass back to PENDING. If that fails as
+     * well they are kept and released on the next pass.
+     */
+    private void releaseStranded() {
+        if (stranded.isEmpty()) {
+            return;
+        }
+        try {
+            db.transaction(conn -> {
+                PreparedStatement release = conn.prepare(RELEASE);
+                for (long id : stranded) {
+                    release.setLong(1, id);
+                    release.addBatch();
+                }
+                return release.executeBatch();
+            });
+            stranded.clear();
+        } catch (SQLException e) {
+            System.err.println("Failed to release " + stranded.size() + " claimed notifications, will retry: " +
+                    e.getMessage());
+        }
+    }
+
+    private void store() throws SQLException {
+        List<Pending> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        int inserted = db.transaction(conn -> {
+            PreparedStatement pstmt = conn.prepare(INSERT);
+            for (Pending pending : batch) {
+                pstmt.setString(1, pending.provider());
+                pstmt.setString(2, pending.message());
+                pstmt.setLong(3, pending.createdAt());
+                pstmt.setString(4, pending.dedupeKey());
+                pstmt.addBatch();
+            }
+            int count = 0;
+            for (int result : pstmt.executeBatch()) {
+                count += Math.max(result, 0);
+            }
+            return count;
+        });
+        stored.addAndGet(inserted);
+    }
+
+    private static List<Notification> claim(PooledConnection conn, String provider, int limit) throws SQLException {
+        PreparedStatement select = conn.prepare(SELECT_PENDING);
+        select.setString(1, provider);
+        select.setLong(2, System.currentTimeMillis());
+        select.setInt(3, limit);
+        List<Notification> claimed = new ArrayList<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                claimed.add(new Notification(rs.getLong(1), rs.getString(2), rs.getLong(3)));
+            }
+        }
+
+        PreparedStatement mark = conn.prepare(MARK_SENDING);
+        for (Notification notification : claimed) {
+            mark.setLong(1, notification.id());
+            mark.addBatch();
+        }
+        if (!claimed.isEmpty()) {
+            mark.executeBatch();
+        }
+        return claimed;
+    }
+
+    private void record(List<Result> results) throws SQLException {
+        long now = System.currentTimeMillis();
+        db.transaction(conn -> {
+            PreparedStatement markSent = conn.prepare(MARK_SENT);
+            PreparedStatement markFailed = conn.prepare(MARK_FAILED);
+            PreparedStatement release = conn.prepare(RELEASE);
+            for (Result result : results) {
+                for (Notification notification : result.batch()) {
+                    switch (result.outcome()) {
+                        case SENT -> {
+                            markSent.setLong(1, now);
+                            markSent.setLong(2, notification.id());
+                            markSent.addBatch();
+                        }
+                        case FAILED -> {
+                            markFailed.setLong(1, now);
+                            markFailed.setLong(2, RETRY_BASE_MS);
+                            markFailed.setInt(3, MAX_ATTEMPTS);
+                            markFailed.setLong(4, notification.id());
+                            markFailed.addBatch();
+                        }
+                        case RELEASED -> {
+                            release.setLong(1, notification.id());
+                            release.addBatch();
+                        }
+                    }
+                }
+            }
+            markSent.executeBatch();
+            markFailed.executeBatch();
+            release.executeBatch();
+            return null;
+        });
+
+        for (Result result : results) {
+            switch (result.outcome()) {
+                case SENT -> sent.addAndGet(result.batch().size());
+                case FAILED -> failed.addAndGet(result.batch().size());
+                case RELEASED -> { }
+            }
+        }
+    }
+
+    /**
+     * A registered provider with its rate limit and circuit breaker.
+     */
+    private static final class Channel {
+        final NotificationProvider provider;
+        final RateLimiter limiter;
+        final CircuitBreaker breaker;
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong failedBatches = new AtomicLong();
+
+        Channel(NotificationProvider provider, RateLimiter limiter, CircuitBreaker breaker) {
+            this.provider = provider;
+            this.limiter = limiter;
+            this.breaker = breaker;
+        }
+
+        /**
+         * Rows to claim this pass: nothing while the breaker is open, a
+         * single batch while it is probing, otherwise what the bucket allows.
+         */
+        int claimLimit() {
+            return switch (breaker.state()) {
+                case OPEN -> 0;
+                case HALF_OPEN -> Math.min(limiter.available(), Math.max(1, provider.maxBatchSize()));
+                case CLOSED -> Math.min(limiter.available(), CLAIM_ROWS);
+            };
+        }
+
+        Result send(List<Notification> batch) {
+            // An earlier batch of this pass tripped the breaker; give the rows back untouched
+            if (breaker.state() == CircuitBreaker.State.OPEN) {
+                return new Result(Outcome.RELEASED, batch);
+            }
+            try {
+                provider.send(batch);
+                breaker.onSuccess();
+                sent.addAndGet(batch.size());
+                return new Result(Outcome.SENT, batch);
+            } catch (Exception e) {
+                System.err.println("Notification provider " + provider.name() + " failed: " + e.getMessage());
+                breaker.onFailure();
+                failedBatches.incrementAndGet();
+                return new Result(Outcome.FAILED, batch);
+            }
+        }
+
+        ProviderStats stats() {
+            return new ProviderStats(breaker.state().name(), breaker.consecutiveFailures(), sent.get(),
+                    failedBatches.get(), limiter.permitsPerSecond);
+        }
+    }
+
+    /**
+     * Token bucket refilled continuously at permitsPerSecond. It holds one
+     * dispatch interval's worth of tokens, so a backlog drains at the
+     * configured rate without bursting above it.
+     */
+    static final class RateLimiter {
+        final double permitsPerSecond;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        RateLimiter(double permitsPerSecond, long intervalMs) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.capacity = Math.max(1, permitsPerSecond * Math.max(1, intervalMs) / 1000.0);
+            this.tokens = capacity;
+        }
+
+        synchronized int available() {
+            refill();
+            return (int) Math.floor(tokens);
+        }
+
+        synchronized void take(int permits) {
+            refill();
+            tokens -= permits;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) / 1_000_000_000.0 * permitsPerSecond);
+            refilledAt = now;
+        }
+    }
+
+    /**
+     * Opens after threshold consecutive failures. Once openMs has passed
+     * it is half open: one probe batch decides whether it closes again.
+     */
+    static final class CircuitBreaker {
+        enum State { CLOSED, OPEN, HALF_OPEN }
+
+        private final int threshold;
+        private final long openMs;
+        private int failures;
+        private long openUntil;
+        private boolean open;
+
+        CircuitBreaker(int threshold, long openMs) {
+            this.threshold = threshold;
+            this.openMs = openMs;
+        }
+
+        synchronized State state() {
+            if (!open) {
+                return State.CLOSED;
+            }
+            return System.currentTimeMillis() < openUntil ? State.OPEN : State.HALF_OPEN;
+        }
+
+        synchronized int consecutiveFailures() {
+            return failures;
+        }
+
+        synchronized void onSuccess() {
+            failures = 0;
+            open = false;
+        }
+
+        synchronized void onFailure() {
+            failures++;
+            // A failed probe re-opens straight away
+            if (open || failures >= threshold) {
+                open = true;
+                openUntil = System.currentTimeMillis() + openMs;
+            }
+        }
+    }
+}
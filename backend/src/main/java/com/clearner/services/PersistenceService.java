@@ -1,109 +1,182 @@
 package com.clearner.services;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.clearner.Json;
+import com.clearner.models.PasteRequest;
+import com.clearner.models.ProgressRequest;
+import com.clearner.models.StepEvent;
+import com.clearner.models.StepEventRequest;
+import com.clearner.models.StepEventType;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.sql.Connection;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 public class PersistenceService {
 
-    private final DatabaseService db;
+    private static final String SELECT_PROGRESS =
+            "SELECT lesson_id, current_step, completed, updated_at FROM lessons_progress WHERE user_id = ?";
+
+    private static final int PROGRESS_BUFFER_SIZE = 500;
+    private static final long PROGRESS_FLUSH_INTERVAL_MS = 250;
+    private static final int EVENT_QUEUE_CAPACITY = 50_000;
+    private static final int EVENT_BATCH_SIZE = 1000;
+
+    private final ShardedStorage storage;
     private final ObjectMapper mapper;
+    // One buffer and one event writer per shard, indexed like storage.shards()
+    private final ProgressBuffer[] progressBuffers;
+    private final EventIngestService[] events;
+    private final List<Consumer<ProgressRequest>> completionListeners = new CopyOnWriteArrayList<>();
 
     public PersistenceService(DatabaseService db) {
-        this.db = db;
-        this.mapper = new ObjectMapper();
+        this(new ShardedStorage(db));
+    }
+
+    public PersistenceService(ShardedStorage storage) {
+        this.storage = storage;
+        this.mapper = Json.MAPPER;
+        int shards = storage.shards().size();
+        this.progressBuffers = new ProgressBuffer[shards];
+        this.events = new EventIngestService[shards];
+        for (int i = 0; i < shards; i++) {
+            DatabaseService db = storage.shards().get(i);
+            progressBuffers[i] = new ProgressBuffer(db, PROGRESS_BUFFER_SIZE, PROGRESS_FLUSH_INTERVAL_MS);
+            // Full capacity per shard, so a batch accepted with one file is accepted on any shard
+            events[i] = new EventIngestService(db, EVENT_QUEUE_CAPACITY, EVENT_BATCH_SIZE);
+        }
     }
 
     /**
      * Save or update lesson progress for a user.
+     * The update is buffered and written to the database in the next batch.
+     */
+    public boolean saveProgress(ProgressRequest request) {
+        if (request == null || !request.isValid()) {
+            System.err.println("Missing userId, lessonId or currentStep in progress data: " + request);
+            return false;
+        }
+
+        ProgressBuffer buffer = progressBuffers[storage.shardOf(request.userId())];
+        buffer.add(new ProgressBuffer.Update(request.userId(), request.lessonId(), request.currentStep(),
+                request.completed(), System.currentTimeMillis()));
+        if (request.completed()) {
+            for (Consumer<ProgressRequest> listener : completionListeners) {
+                listener.accept(request);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Be notified of every saved progress update that marks a lesson
+     * completed. Runs on the request thread, so listeners must not block.
+     */
+    public void addCompletionListener(Consumer<ProgressRequest> listener) {
+        completionListeners.add(listener);
+    }
+
+    /**
+     * Save progress from a raw JSON body.
      * Expected JSON: { "userId": "...", "lessonId": "...", "currentStep": 0, "completed": false }
      */
     public boolean saveProgress(String jsonData) {
         try {
-            JsonNode node = mapper.readTree(jsonData);
-            
-            // Validate required fields
-            if (!node.has("userId") || node.get("userId") == null) {
-                System.err.println("Missing or null userId in progress data: " + jsonData);
-                return false;
-            }
-            if (!node.has("lessonId") || node.get("lessonId") == null) {
-                System.err.println("Missing or null lessonId in progress data: " + jsonData);
-                return false;
-            }
-            if (!node.has("currentStep") || node.get("currentStep") == null) {
-                System.err.println("Missing or null currentStep in progress data: " + jsonData);
-                return false;
-            }
-            
-            String userId = node.get("userId").asText();
-            String lessonId = node.get("lessonId").asText();
-            int currentStep = node.get("currentStep").asInt();
-            int completed = node.has("completed") && node.get("completed").asBoolean() ? 1 : 0;
-            long now = System.currentTimeMillis();
-
-            try (Connection conn = db.getConnection()) {
-                // UPSERT logic
-                String upsert = "INSERT INTO lessons_progress (user_id, lesson_id, current_step, completed, updated_at, sync_status) " +
-                                "VALUES (?, ?, ?, ?, ?, 'DIRTY') " +
-                                "ON CONFLICT(user_id, lesson_id) DO UPDATE SET " +
-                                "current_step = excluded.current_step, " +
-                                "completed = excluded.completed, " +
-                                "updated_at = excluded.updated_at, " +
-                                "sync_status = 'DIRTY'";
-                
-                try (PreparedStatement pstmt = conn.prepareStatement(upsert)) {
-                    pstmt.setString(1, userId);
-                    pstmt.setString(2, lessonId);
-                    pstmt.setInt(3, currentStep);
-                    pstmt.setInt(4, completed);
-                    pstmt.setLong(5, now);
-                    Number result = pstmt.executeUpdate();
-
-                    return result.intValue() > 0;
-                }
+            return saveProgress(mapper.readValue(jsonData, ProgressRequest.class));
+        } catch (IOException e) {
+            System.err.println("Invalid progress data: " + jsonData);
+            return false;
+        }
+    }
+
+    /**
+     * Queue a paste event.
+     */
+    public EventIngestService.Result logPaste(PasteRequest request) {
+        if (request == null || !request.isValid()) {
+            System.err.println("Missing userId, lessonId or stepIndex in paste data: " + request);
+            return EventIngestService.Result.INVALID;
+        }
+
+        StepEvent event = new StepEvent(request.userId(), request.lessonId(), request.stepIndex(),
+                StepEventType.PASTE, System.currentTimeMillis());
+        return submit(List.of(event)) ? EventIngestService.Result.ACCEPTED : EventIngestService.Result.QUEUE_FULL;
+    }
+
+    /**
+     * Record the outcome of a server-side task check.
+     */
+    public void logTaskCheck(String userId, String lessonId, int stepIndex, boolean passed) {
+        StepEvent event = new StepEvent(userId, lessonId, stepIndex,
+                passed ? StepEventType.TASK_PASS : StepEventType.TASK_FAIL, System.currentTimeMillis());
+        if (!submit(List.of(event))) {
+            System.err.println("Event queue full, dropping task check event for " + userId);
+        }
+    }
+
+    /**
+     * Queue a batch of step events. createdAt defaults to the time the batch was received.
+     */
+    public EventIngestService.Result logEvents(List<StepEventRequest> requests) {
+        if (requests == null) {
+            return EventIngestService.Result.INVALID;
+        }
+
+        long now = System.currentTimeMillis();
+        List<StepEvent> batch = new ArrayList<>(requests.size());
+        for (StepEventRequest request : requests) {
+            StepEvent event = request != null ? request.toEvent(now) : null;
+            if (event == null) {
+                System.err.println("Invalid step event: " + request);
+                return EventIngestService.Result.INVALID;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            batch.add(event);
         }
 
-        return false;
+        return submit(batch) ? EventIngestService.Result.ACCEPTED : EventIngestService.Result.QUEUE_FULL;
     }
 
     /**
-     * Log a paste event.
-     * Expected JSON: { "userId": "...", "lessonId": "...", "stepIndex": 0, "content": "..." }
+     * Queue events on their learners' shards, all or none.
      */
-    public void logPaste(String jsonData) {
-        try {
-            JsonNode node = mapper.readTree(jsonData);
-            String userId = node.get("userId").asText();
-            String lessonId = node.get("lessonId").asText();
-            int stepIndex = node.get("stepIndex").asInt();
-            long now = System.currentTimeMillis();
-
-            try (Connection conn = db.getConnection()) {
-                String insert = "INSERT INTO lesson_step_events (user_id, lesson_id, step_index, event_type, created_at, sync_status) " +
-                                "VALUES (?, ?, ?, 'PASTE', ?, 'DIRTY')";
-                
-                try (PreparedStatement pstmt = conn.prepareStatement(insert)) {
-                    pstmt.setString(1, userId);
-                    pstmt.setString(2, lessonId);
-                    pstmt.setInt(3, stepIndex);
-                    pstmt.setLong(4, now);
-                    pstmt.executeUpdate();
+    private boolean submit(List<StepEvent> batch) {
+        if (events.length == 1) {
+            return events[0].submit(batch);
+        }
+
+        Map<Integer, List<StepEvent>> byShard = new HashMap<>();
+        for (StepEvent event : batch) {
+            byShard.computeIfAbsent(storage.shardOf(event.userId()), k -> new ArrayList<>()).add(event);
+        }
+        if (byShard.size() == 1) {
+            Map.Entry<Integer, List<StepEvent>> only = byShard.entrySet().iterator().next();
+            return events[only.getKey()].submit(only.getValue());
+        }
+
+        List<Map.Entry<Integer, List<StepEvent>>> reserved = new ArrayList<>(byShard.size());
+        for (Map.Entry<Integer, List<StepEvent>> entry : byShard.entrySet()) {
+            if (!events[entry.getKey()].reserve(entry.getValue().size())) {
+                for (Map.Entry<Integer, List<StepEvent>> undo : reserved) {
+                    events[undo.getKey()].release(undo.getValue().size());
                 }
+                return false;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            reserved.add(entry);
+        }
+        for (Map.Entry<Integer, List<StepEvent>> entry : reserved) {
+            events[entry.getKey()].enqueue(entry.getValue());
         }
+        return true;
     }
 
     /**
@@ -111,27 +184,94 @@ public class PersistenceService {
      * Returns JSON array: [{ "lessonId": "...", "currentStep": 0, "completed": false }, ...]
      */
     public String getProgress(String userId) {
-        List<Map<String, Object>> progressList = new ArrayList<>();
-        
-        try (Connection conn = db.getConnection()) {
-            String query = "SELECT lesson_id, current_step, completed FROM lessons_progress WHERE user_id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+        return new String(getProgressJson(userId), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get all progress for a user as UTF-8 JSON, written straight from the
+     * ResultSet with a JsonGenerator. Buffered updates replace stored rows
+     * when they are at least as new.
+     */
+    public byte[] getProgressJson(String userId) {
+        // Snapshot the buffer before reading so a flush in between cannot hide an update
+        Map<String, ProgressBuffer.Update> buffered = new HashMap<>();
+        for (ProgressBuffer.Update update : progressBuffers[storage.shardOf(userId)].pendingFor(userId)) {
+            buffered.put(update.lessonId(), update);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            storage.forUser(userId).read(conn -> {
+                PreparedStatement pstmt = conn.prepare(SELECT_PROGRESS);
                 pstmt.setString(1, userId);
-                ResultSet rs = pstmt.executeQuery();
-                
-                while (rs.next()) {
-                    Map<String, Object> item = new HashMap<>();
-                    item.put("lessonId", rs.getString("lesson_id"));
-                    item.put("currentStep", rs.getInt("current_step"));
-                    item.put("completed", rs.getInt("completed") == 1);
-                    progressList.add(item);
+                try (ResultSet rs = pstmt.executeQuery(); JsonGenerator gen = mapper.createGenerator(out)) {
+                    gen.writeStartArray();
+                    while (rs.next()) {
+                        String lessonId = rs.getString("lesson_id");
+                        ProgressBuffer.Update update = buffered.get(lessonId);
+                        if (update != null && update.updatedAt() >= rs.getLong("updated_at")) {
+                            writeProgressItem(gen, lessonId, update.currentStep(), update.completed());
+                            buffered.remove(lessonId);
+                        } else {
+                            writeProgressItem(gen, lessonId, rs.getInt("current_step"), rs.getInt("completed") == 1);
+                        }
+                    }
+                    for (ProgressBuffer.Update update : buffered.values()) {
+                        writeProgressItem(gen, update.lessonId(), update.currentStep(), update.completed());
+                    }
+                    gen.writeEndArray();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-            }
-            
-            return mapper.writeValueAsString(progressList);
+                return null;
+            });
+            return out.toByteArray();
         } catch (Exception e) {
             e.printStackTrace();
-            return "[]";
+            return "[]".getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    public EventIngestService.Stats getEventStats() {
+        if (events.length == 1) {
+            return events[0].getStats();
+        }
+        List<EventIngestService.Stats> all = new ArrayList<>(events.length);
+        for (EventIngestService shard : events) {
+            all.add(shard.getStats());
+        }
+        return EventIngestService.Stats.sum(all);
+    }
+
+    public ProgressBuffer.Stats getProgressBufferStats() {
+        if (progressBuffers.length == 1) {
+            return progressBuffers[0].getStats();
         }
+        List<ProgressBuffer.Stats> all = new ArrayList<>(progressBuffers.length);
+        for (ProgressBuffer buffer : progressBuffers) {
+            all.add(buffer.getStats());
+        }
+        return ProgressBuffer.Stats.sum(all);
+    }
+
+    /**
+     * Flush buffered progress and events and stop the background writers.
+     */
+    public void close() {
+        for (ProgressBuffer buffer : progressBuffers) {
+            buffer.close();
+        }
+        for (EventIngestService shard : events) {
+            shard.close();
+        }
+    }
+
+    private static void writeProgressItem(JsonGenerator gen, String lessonId, int currentStep, boolean completed)
+            throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("lessonId", lessonId);
+        gen.writeNumberField("currentStep", currentStep);
+        gen.writeBooleanField("completed", completed);
+        gen.writeEndObject();
     }
 }
@@ -0,0 +1,197 @@
+package com.clearner.services;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind buffer for lesson progress.
+ * Updates are coalesced per (user, lesson) so only the latest step is kept,
+ * then written in a single transaction when the buffer fills up, when the
+ * flush interval elapses, or on shutdown.
+ */
+public class ProgressBuffer implements AutoCloseable {
+
+    public record Update(String userId, String lessonId, int currentStep, boolean completed, long updatedAt) {}
+
+    public record Stats(long received, long flushedRows, long flushes, long pending,
+                        double coalescingRatio, double lastFlushMs, double avgFlushMs, double maxFlushMs) {
+
+        /**
+         * Totals over several buffers, e.g. one per shard. lastFlushMs is
+         * the slowest of the last flushes.
+         */
+        public static Stats sum(List<Stats> all) {
+            long received = 0;
+            long rows = 0;
+            long flushes = 0;
+            long pending = 0;
+            double totalMs = 0;
+            double lastMs = 0;
+            double maxMs = 0;
+            for (Stats stats : all) {
+                received += stats.received();
+                rows += stats.flushedRows();
+                flushes += stats.flushes();
+                pending += stats.pending();
+                totalMs += stats.avgFlushMs() * stats.flushes();
+                lastMs = Math.max(lastMs, stats.lastFlushMs());
+                maxMs = Math.max(maxMs, stats.maxFlushMs());
+            }
+            return new Stats(received, rows, flushes, pending,
+                    rows + pending == 0 ? 1.0 : (double) received / (rows + pending),
+                    lastMs, flushes == 0 ? 0.0 : totalMs / flushes, maxMs);
+        }
+    }
+
+    private record Key(String userId, String lessonId) {}
+
+    private static final String UPSERT_PROGRESS =
+            "INSERT INTO lessons_progress (user_id, lesson_id, current_step, completed, updated_at, sync_status) " +
+            "VALUES (?, ?, ?, ?, ?, 'DIRTY') " +
+            "ON CONFLICT(user_id, lesson_id) DO UPDATE SET " +
+            "current_step = excluded.current_step, " +
+            "completed = excluded.completed, " +
+            "updated_at = excluded.updated_at, " +
+            "sync_status = 'DIRTY'";
+
+    private final DatabaseService db;
+    private final int maxPending;
+    private final Map<Key, Update> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    public ProgressBuffer(DatabaseService db, int maxPending, long flushIntervalMs) {
+        this.db = db;
+        this.maxPending = maxPending;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "progress-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffer an update, replacing any pending update for the same lesson.
+     */
+    public void add(Update update) {
+        pending.put(new Key(update.userId(), update.lessonId()), update);
+        received.incrementAndGet();
+
+        if (pending.size() >= maxPending && flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // Shutting down; close() performs the final flush
+            }
+        }
+    }
+
+    /**
+     * Pending updates for a user that have not been written yet.
+     */
+    public List<Update> pendingFor(String userId) {
+        List<Update> updates = new ArrayList<>();
+        for (Update update : pending.values()) {
+            if (update.userId().equals(userId)) {
+                updates.add(update);
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * Write all pending updates in one transaction.
+     * Entries are only dropped from the buffer once committed, and only if
+     * no newer update replaced them in the meantime.
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<Key, Update>> batch = new ArrayList<>(pending.entrySet().size());
+        for (Map.Entry<Key, Update> entry : pending.entrySet()) {
+            batch.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+
+        long start = System.nanoTime();
+        try {
+            db.transaction(conn -> {
+                PreparedStatement pstmt = conn.prepare(UPSERT_PROGRESS);
+                for (Map.Entry<Key, Update> entry : batch) {
+                    Update update = entry.getValue();
+                    pstmt.setString(1, update.userId());
+                    pstmt.setString(2, update.lessonId());
+                    pstmt.setInt(3, update.currentStep());
+                    pstmt.setInt(4, update.completed() ? 1 : 0);
+                    pstmt.setLong(5, update.updatedAt());
+                    pstmt.addBatch();
+                }
+                return pstmt.executeBatch();
+            });
+        } catch (Exception e) {
+            System.err.println("Progress flush failed, will retry: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+        recordFlush(System.nanoTime() - start, batch.size());
+
+        for (Map.Entry<Key, Update> entry : batch) {
+            pending.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public Stats getStats() {
+        long rows = flushedRows.get();
+        long count = flushes.get();
+        long inBuffer = pending.size();
+        double ratio = rows + inBuffer == 0 ? 1.0 : (double) received.get() / (rows + inBuffer);
+        return new Stats(
+            received.get(),
+            rows,
+            count,
+            inBuffer,
+            ratio,
+            lastFlushNanos.get() / 1_000_000.0,
+            count == 0 ? 0.0 : totalFlushNanos.get() / 1_000_000.0 / count,
+            maxFlushNanos.get() / 1_000_000.0
+        );
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void recordFlush(long nanos, int rows) {
+        flushes.incrementAndGet();
+        flushedRows.addAndGet(rows);
+        totalFlushNanos.addAndGet(nanos);
+        lastFlushNanos.set(nanos);
+        maxFlushNanos.accumulateAndGet(nanos, Math::max);
+    }
+}
@@ -0,0 +1,240 @@
+package com.clearner.services;
+
+import com.clearner.Json;
+import com.clearner.storage.PooledConnection;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Retention job for append-only tables.
+ * Rows past the retention window that no longer need to stay local (synced
+ * step events, finished notifications) are
+ * written to gzip NDJSON segment files and then deleted in small
+ * transactions, pausing between chunks so request writes are not held up.
+ * Freed pages are returned with incremental vacuum, also in small steps.
+ * The first run switches each file to incremental auto-vacuum. That takes
+ * one full VACUUM, so files above CONVERT_MAX_PAGES are only converted
+ * when convertLarge is set; until then their freed pages are reused by
+ * SQLite but not given back.
+ *
+ * Segments are named after the id range they hold and written through a
+ * temp file, so re-running a chunk after a crash replaces the segment
+ * instead of duplicating it. Event ids are unique across shards, so the
+ * segments of every shard can share one directory.
+ */
+public class RetentionService implements AutoCloseable {
+
+    public record Stats(long archivedRows, long deletedRows, long segments, long freedPages, long runs,
+                        double lastRunMs, long lastRunAt) {}
+
+    /**
+     * Rows of table matching eligible are archived; perUser tables live in the shards.
+     */
+    private record Policy(String table, String eligible, boolean perUser) {}
+
+    private static final List<Policy> POLICIES = List.of(
+        new Policy("lesson_step_events", "sync_status = 'SYNCED' AND created_at < ?", true),
+        new Policy("external_notifications", "status IN ('SENT', 'FAILED') AND created_at < ?", false)
+    );
+
+    private static final int CHUNK_ROWS = 1000;
+    private static final int VACUUM_PAGES = 256;
+    private static final long PAUSE_MS = 20;
+    // About 40 MB with 4 KB pages; a VACUUM of this size takes well under a second
+    private static final long CONVERT_MAX_PAGES = 10_000;
+
+    private final ShardedStorage storage;
+    private final long retentionMs;
+    private final Path archiveDir;
+    private final boolean convertLarge;
+    private final ScheduledExecutorService scheduler;
+    // Files that use incremental auto-vacuum; only touched by runOnce
+    private final Set<DatabaseService> incremental = new HashSet<>();
+    private final Set<DatabaseService> notConverted = new HashSet<>();
+
+    private final AtomicLong archivedRows = new AtomicLong();
+    private final AtomicLong deletedRows = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong freedPages = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+    private volatile long lastRunNanos;
+    private volatile long lastRunAt;
+
+    /**
+     * @param retentionDays rows older than this are archived; 0 or less disables the job
+     * @param convertLarge also convert files too large to VACUUM quickly to incremental auto-vacuum
+     */
+    public RetentionService(ShardedStorage storage, int retentionDays, Path archiveDir, long intervalMs,
+                            boolean convertLarge) {
+        this.storage = storage;
+        this.convertLarge = convertLarge;
+        this.retentionMs = TimeUnit.DAYS.toMillis(retentionDays);
+        this.archiveDir = archiveDir;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "retention");
+            t.setDaemon(true);
+            return t;
+        });
+        if (retentionDays > 0) {
+            scheduler.scheduleWithFixedDelay(this::runQuietly, Math.min(intervalMs, 60_000), intervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Archive and delete everything past the retention window, then vacuum.
+     */
+    public synchronized void runOnce() throws SQLException, IOException, InterruptedException {
+        long start = System.nanoTime();
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        for (Policy policy : POLICIES) {
+            for (DatabaseService db : policy.perUser() ? storage.shards() : List.of(storage.directory())) {
+                archive(db, policy, cutoff);
+            }
+        }
+        for (DatabaseService db : storage.all()) {
+            vacuum(db);
+        }
+
+        runs.incrementAndGet();
+        lastRunAt = System.currentTimeMillis();
+        lastRunNanos = System.nanoTime() - start;
+    }
+
+    public Stats getStats() {
+        return new Stats(archivedRows.get(), deletedRows.get(), segments.get(), freedPages.get(), runs.get(),
+                lastRunNanos / 1_000_000.0, lastRunAt);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void runQuietly() {
+        try {
+            runOnce();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Retention run failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void archive(DatabaseService db, Policy policy, long cutoff)
+            throws SQLException, IOException, InterruptedException {
+        String select = "SELECT * FROM " + policy.table() + " WHERE id > ? AND " + policy.eligible() +
+                " ORDER BY id LIMIT " + CHUNK_ROWS;
+        // Re-check eligibility so a row that changed since it was read stays
+        String delete = "DELETE FROM " + policy.table() + " WHERE id BETWEEN ? AND ? AND " + policy.eligible();
+
+        long after = 0;
+        while (true) {
+            long from = after;
+            List<Map<String, Object>> rows = db.read(conn -> readChunk(conn, select, from, cutoff));
+            if (rows.isEmpty()) {
+                return;
+            }
+
+            long first = ((Number) rows.get(0).get("id")).longValue();
+            long last = ((Number) rows.get(rows.size() - 1).get("id")).longValue();
+            writeSegment(policy.table(), first, last, rows);
+            archivedRows.addAndGet(rows.size());
+            segments.incrementAndGet();
+
+            int deleted = db.transaction(conn -> {
+                PreparedStatement pstmt = conn.prepare(delete);
+                pstmt.setLong(1, first);
+                pstmt.setLong(2, last);
+                pstmt.setLong(3, cutoff);
+                return pstmt.executeUpdate();
+            });
+            deletedRows.addAndGet(deleted);
+
+            if (rows.size() < CHUNK_ROWS) {
+                return;
+            }
+            after = last;
+            Thread.sleep(PAUSE_MS);
+        }
+    }
+
+    private static List<Map<String, Object>> readChunk(PooledConnection conn, String sql, long after, long cutoff)
+            throws SQLException {
+        PreparedStatement pstmt = conn.prepare(sql);
+        pstmt.setLong(1, after);
+        pstmt.setLong(2, cutoff);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    row.put(meta.getColumnName(i), rs.getObject(i));
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private void writeSegment(String table, long first, long last, List<Map<String, Object>> rows) throws IOException {
+        Path dir = archiveDir.resolve(table);
+        Files.createDirectories(dir);
+        Path target = dir.resolve(String.format("%s-%012d-%012d.ndjson.gz", table, first, last));
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             GZIPOutputStream out = new GZIPOutputStream(file, 64 * 1024)) {
+            for (Map<String, Object> row : rows) {
+                out.write(Json.MAPPER.writeValueAsBytes(row));
+                out.write('\n');
+            }
+            out.finish();
+            // The segment must be on disk before its rows are deleted
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void vacuum(DatabaseService db) throws SQLException, InterruptedException {
+        if (!incremental.contains(db)) {
+            if (!db.getDatabase().enableIncrementalVacuum(convertLarge ? Long.MAX_VALUE : CONVERT_MAX_PAGES)) {
+                if (notConverted.add(db)) {
+                    System.err.println("Not switching " + db.getDatabase().getUrl() + " to incremental " +
+                            "auto-vacuum, the file is large; start with -Dclearner.retention.convertVacuum=true");
+                }
+                return;
+            }
+            incremental.add(db);
+        }
+        while (true) {
+            long freed = db.getDatabase().incrementalVacuum(VACUUM_PAGES);
+            freedPages.addAndGet(freed);
+            if (freed < VACUUM_PAGES) {
+                return;
+            }
+            Thread.sleep(PAUSE_MS);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.clearner.services;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Decides which SQLite file holds which learner's data.
+ *
+ * By default everything lives in one database. With more than one shard
+ * that database becomes the directory: it keeps users (display name to
+ * id), the sync queue and notifications. lessons_progress,
+ * user_preferences and lesson_step_events move to shard files, and each
+ * user's rows go to the shard picked by a stable hash of user_id. Every
+ * shard has its own writer connection, so learners on different shards
+ * do not queue behind each other's writes.
+ *
+ * The shard count is recorded in the directory on first use and cannot
+ * change afterwards; a different count would send learners to the wrong
+ * files. Each shard's event ids start at its own offset, so ids stay
+ * unique across shards for sync, export and archive file names.
+ */
+public class ShardedStorage implements AutoCloseable {
+
+    private static final String SHARD_COUNT_KEY = "storage.shards";
+    private static final long EVENT_ID_STRIDE = 1L << 40;
+    private static final List<String> LEARNER_TABLES = List.of("lessons_progress", "user_preferences",
+            "lesson_step_events");
+
+    private static final String SELECT_META = "SELECT value FROM app_meta WHERE key = ?";
+    private static final String INSERT_META = "INSERT INTO app_meta (key, value) VALUES (?, ?)";
+    private static final String SEED_EVENT_IDS =
+            "INSERT INTO sqlite_sequence (name, seq) SELECT 'lesson_step_events', ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = 'lesson_step_events')";
+
+    private final DatabaseService directory;
+    private final List<DatabaseService> shards;
+
+    /**
+     * Everything in one database.
+     */
+    public ShardedStorage(DatabaseService db) {
+        this.directory = db;
+        this.shards = List.of(db);
+    }
+
+    /**
+     * Open the directory at directoryPath and, when shardCount is above
+     * one, shardCount shard files in shardDir.
+     */
+    public ShardedStorage(String directoryPath, Path shardDir, int shardCount) {
+        this.directory = new DatabaseService(directoryPath);
+        try {
+            checkShardCount(directoryPath, Math.max(1, shardCount));
+        } catch (SQLException | RuntimeException e) {
+            directory.close();
+            throw e instanceof RuntimeException runtime ? runtime
+                    : new IllegalStateException("Failed to check shard count: " + e.getMessage(), e);
+        }
+        if (shardCount <= 1) {
+            this.shards = List.of(directory);
+            return;
+        }
+
+        // Migrations for each file are independent, so the shards open in parallel.
+        // Failures are collected rather than thrown so every shard has finished
+        // opening before anything is closed.
+        List<OpenedShard> opened = IntStream.range(0, shardCount).parallel()
+                .mapToObj(i -> {
+                    try {
+                        return new OpenedShard(openShard(shardDir, i), null);
+                    } catch (RuntimeException e) {
+                        return new OpenedShard(null, e);
+                    }
+                })
+                .toList();
+        RuntimeException failure = null;
+        List<DatabaseService> shards = new ArrayList<>(shardCount);
+        for (OpenedShard shard : opened) {
+            if (shard.error() == null) {
+                shards.add(shard.db());
+            } else if (failure == null) {
+                failure = shard.error();
+            } else {
+                failure.addSuppressed(shard.error());
+            }
+        }
+        if (failure != null) {
+            shards.forEach(DatabaseService::close);
+            directory.close();
+            throw failure;
+        }
+        this.shards = List.copyOf(shards);
+    }
+
+    private record OpenedShard(DatabaseService db, RuntimeException error) {}
+
+    /**
+     * The database holding users and everything that is not per learner.
+     */
+    public DatabaseService directory() {
+        return directory;
+    }
+
+    /**
+     * The database holding progress, preferences and events of userId.
+     */
+    public DatabaseService forUser(String userId) {
+        return shards.get(shardOf(userId));
+    }
+
+    /**
+     * Index into shards() for userId. String.hashCode is fixed by the
+     * language spec, so the mapping does not change between runs or JVMs.
+     */
+    public int shardOf(String userId) {
+        if (shards.size() == 1) {
+            return 0;
+        }
+        int h = userId.hashCode();
+        // Spread the bits so user ids that differ only at the end still scatter
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, shards.size());
+    }
+
+    /**
+     * Databases holding learner tables. Just the directory when unsharded.
+     */
+    public List<DatabaseService> shards() {
+        return shards;
+    }
+
+    /**
+     * Every distinct database, directory first.
+     */
+    public List<DatabaseService> all() {
+        if (!isSharded()) {
+            return shards;
+        }
+        List<DatabaseService> all = new ArrayList<>(shards.size() + 1);
+        all.add(directory);
+        all.addAll(shards);
+        return all;
+    }
+
+    public boolean isSharded() {
+        return shards.get(0) != directory;
+    }
+
+    @Override
+    public void close() {
+        for (DatabaseService db : all()) {
+            db.close();
+        }
+    }
+
+    private DatabaseService openShard(Path shardDir, int index) {
+        DatabaseService shard = new DatabaseService(shardDir.resolve("shard-" + index + ".db").toString(),
+                directory.getDatabase().getMetrics());
+        try {
+            shard.write(conn -> {
+                PreparedStatement pstmt = conn.prepare(SEED_EVENT_IDS);
+                pstmt.setLong(1, (index + 1) * EVENT_ID_STRIDE);
+                return pstmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            shard.close();
+            throw new IllegalStateException("Failed to prepare shard " + index + ": " + e.getMessage(), e);
+        }
+        return shard;
+    }
+
+    /**
+     * Record the shard count on first use and refuse a different one later.
+     * Switching an existing single-file database to shards needs an export
+     * and an import into a fresh data directory.
+     */
+    private void checkShardCount(String directoryPath, int shardCount) throws SQLException {
+        String recorded = directory.read(conn -> {
+            PreparedStatement pstmt = conn.prepare(SELECT_META);
+            pstmt.setString(1, SHARD_COUNT_KEY);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        });
+        int existing = recorded != null ? Integer.parseInt(recorded) : 1;
+        if (recorded != null || shardCount == 1) {
+            if (existing != shardCount) {
+                throw new IllegalStateException(directoryPath + " was created with " + existing +
+                        " shard(s), start with -Dclearner.shards=" + existing);
+            }
+            return;
+        }
+
+        if (hasLearnerRows()) {
+            throw new IllegalStateException("Cannot shard a database that already holds learner data. " +
+                    "Export it with /api/export, start with -Dclearner.shards=" + shardCount +
+                    " on an empty data directory and import the file.");
+        }
+        directory.write(conn -> {
+            PreparedStatement pstmt = conn.prepare(INSERT_META);
+            pstmt.setString(1, SHARD_COUNT_KEY);
+            pstmt.setString(2, Integer.toString(shardCount));
+            return pstmt.executeUpdate();
+        });
+    }
+
+    private boolean hasLearnerRows() throws SQLException {
+        return directory.read(conn -> {
+            for (String table : LEARNER_TABLES) {
+                try (ResultSet rs = conn.prepare("SELECT EXISTS (SELECT 1 FROM " + table + ")").executeQuery()) {
+                    if (rs.next() && rs.getInt(1) == 1) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+    }
+}
@@ -0,0 +1,454 @@
+package com.clearner.services;
+
+import com.clearner.Json;
+import com.clearner.integrations.RemoteSyncClient;
+import com.clearner.integrations.RemoteSyncClient.SyncRecord;
+import com.clearner.storage.PooledConnection;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Sync engine.
+ * Pushes DIRTY rows and queued operations to a RemoteSyncClient in keyset
+ * paginated batches and marks them SYNCED, one transaction per batch.
+ * Conflicts are resolved by timestamp: the newer copy wins. The engine runs
+ * on its own scheduler thread so it never holds up request handling.
+ * With sharded storage, learner tables are read from every shard in turn;
+ * users and the queue live in the directory.
+ */
+public class SyncService implements AutoCloseable {
+
+    public record Status(boolean enabled, boolean online, long backlog, long deadLetters, long totalSynced,
+                         long lastCycleRows, double rowsPerSecond, long lastCycleAt, int consecutiveFailures) {}
+
+    /**
+     * A synced table. version is the SQL expression used as the row's
+     * timestamp; perUser tables live in the shards.
+     */
+    private record Table(String name, List<String> keyColumns, List<String> columns, String version,
+                         boolean perUser) {}
+
+    private record LocalRow(long rowid, long version, Map<String, Object> data) {}
+
+    private record QueuedOp(long id, SyncRecord record) {}
+
+    private static final List<Table> TABLES = List.of(
+        new Table("users", List.of("id"),
+                List.of("id", "display_name", "created_at", "last_active_at"),
+                "COALESCE(last_active_at, created_at)", false),
+        new Table("lessons_progress", List.of("user_id", "lesson_id"),
+                List.of("user_id", "lesson_id", "current_step", "completed", "updated_at"),
+                "updated_at", true),
+        new Table("user_preferences", List.of("user_id", "key"),
+                List.of("user_id", "key", "value", "updated_at"),
+                "updated_at", true),
+        new Table("lesson_step_events", List.of("id"),
+                List.of("id", "user_id", "lesson_id", "step_index", "event_type", "created_at"),
+                "created_at", true)
+    );
+
+    private static final TypeReference<Map<String, Object>> MAP = new TypeReference<>() {};
+    private static final String MARK_QUEUE_FAILED =
+            "UPDATE sync_queue SET retry_count = retry_count + 1, next_attempt_at = ? + (? << retry_count) " +
+            "WHERE id = ?";
+    private static final String DELETE_QUEUED = "DELETE FROM sync_queue WHERE id = ?";
+    private static final int BATCH_SIZE = 500;
+    private static final int MAX_RETRIES = 10;
+    private static final long RETRY_BASE_MS = 1000;
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(15);
+
+    private final ShardedStorage storage;
+    private final DatabaseService db;
+    private final RemoteSyncClient remote;
+    private final long intervalMs;
+    private final ObjectMapper mapper = Json.MAPPER;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong totalSynced = new AtomicLong();
+    private volatile long backlog;
+    private volatile long deadLetters;
+    private volatile long lastCycleRows;
+    private volatile double rowsPerSecond;
+    private volatile long lastCycleAt;
+    private volatile int consecutiveFailures;
+    private final List<Consumer<Status>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<String>> userListeners = new CopyOnWriteArrayList<>();
+    private Status lastPublished;
+
+    /**
+     * @param remote the remote to push to, or null to keep sync disabled
+     */
+    public SyncService(ShardedStorage storage, RemoteSyncClient remote, long intervalMs) {
+        this.storage = storage;
+        this.db = storage.directory();
+        this.remote = remote;
+        this.intervalMs = intervalMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sync-engine");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        if (remote != null) {
+            scheduler.schedule(this::cycle, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Run one sync pass now and wait for it, regardless of the schedule.
+     */
+    public void syncNow() throws Exception {
+        scheduler.submit(() -> {
+            runOnce();
+            return null;
+        }).get();
+    }
+
+    public Status getStatus() {
+        return new Status(remote != null, consecutiveFailures == 0, backlog, deadLetters, totalSynced.get(),
+                lastCycleRows, rowsPerSecond, lastCycleAt, consecutiveFailures);
+    }
+
+    /**
+     * Be notified after a sync pass that changed whether sync is online,
+     * the backlog or the dead-letter count. Runs on the sync thread.
+     */
+    public void addListener(Consumer<Status> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Be notified with the id of every user row replaced by its remote
+     * version, after the change is committed. Runs on the sync thread.
+     */
+    public void addUserListener(Consumer<String> listener) {
+        userListeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void cycle() {
+        long delay = intervalMs;
+        try {
+            runOnce();
+        } catch (Exception e) {
+            System.err.println("Sync cycle failed: " + e.getMessage());
+        }
+        if (consecutiveFailures > 0) {
+            delay = Math.min(MAX_BACKOFF_MS, intervalMs * (1L << Math.min(consecutiveFailures, 20)));
+        }
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::cycle, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runOnce() throws Exception {
+        long start = System.nanoTime();
+        long rows = 0;
+        try {
+            for (Table table : TABLES) {
+                for (DatabaseService source : table.perUser() ? storage.shards() : List.of(db)) {
+                    rows += syncTable(table, source);
+                }
+            }
+            rows += syncQueue();
+            consecutiveFailures = 0;
+        } catch (Exception e) {
+            consecutiveFailures++;
+            throw e;
+        } finally {
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            lastCycleRows = rows;
+            rowsPerSecond = seconds > 0 ? rows / seconds : 0;
+            lastCycleAt = System.currentTimeMillis();
+            totalSynced.addAndGet(rows);
+            refreshBacklog();
+            publishIfChanged();
+        }
+    }
+
+    private void publishIfChanged() {
+        Status status = getStatus();
+        Status previous = lastPublished;
+        if (previous != null && previous.online() == status.online() && previous.backlog() == status.backlog()
+                && previous.deadLetters() == status.deadLetters()) {
+            return;
+        }
+        lastPublished = status;
+        for (Consumer<Status> listener : listeners) {
+            try {
+                listener.accept(status);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private long syncTable(Table table, DatabaseService db) throws Exception {
+        String select = "SELECT rowid, " + table.version() + " AS sync_version, " + String.join(", ", table.columns()) +
+                " FROM " + table.name() + " WHERE sync_status = 'DIRTY' AND rowid > ? ORDER BY rowid LIMIT ?";
+        long cursor = 0;
+        long synced = 0;
+
+        while (true) {
+            long after = cursor;
+            List<LocalRow> batch = db.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(select);
+                pstmt.setLong(1, after);
+                pstmt.setInt(2, BATCH_SIZE);
+                List<LocalRow> rows = new ArrayList<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        Map<String, Object> data = new LinkedHashMap<>();
+                        for (String column : table.columns()) {
+                            data.put(column, rs.getObject(column));
+                        }
+                        rows.add(new LocalRow(rs.getLong("rowid"), rs.getLong("sync_version"), data));
+                    }
+                }
+                return rows;
+            });
+            if (batch.isEmpty()) {
+                return synced;
+            }
+
+            List<SyncRecord> records = new ArrayList<>(batch.size());
+            for (LocalRow row : batch) {
+                records.add(new SyncRecord(key(table, row.data()), "UPSERT", row.version(), row.data()));
+            }
+            RemoteSyncClient.PushResult result = remote.push(table.name(), records);
+            synced += markSynced(db, table, batch, result.newerOnRemote());
+
+            cursor = batch.get(batch.size() - 1).rowid();
+            if (batch.size() < BATCH_SIZE) {
+                return synced;
+            }
+        }
+    }
+
+    /**
+     * Mark a pushed batch SYNCED in one transaction. Rows that changed after
+     * they were read keep their DIRTY status for the next pass; rows the
+     * remote holds a newer copy of are overwritten with that copy.
+     */
+    private long markSynced(DatabaseService db, Table table, List<LocalRow> batch, List<SyncRecord> newerOnRemote)
+            throws SQLException {
+        Map<String, SyncRecord> remoteWins = new HashMap<>();
+        for (SyncRecord record : newerOnRemote) {
+            remoteWins.put(record.key(), record);
+        }
+
+        String mark = "UPDATE " + table.name() + " SET sync_status = 'SYNCED' WHERE rowid = ? AND " + table.version() + " = ?";
+        List<String> replacedUsers = new ArrayList<>();
+        long synced = db.transaction(conn -> {
+            long count = 0;
+            PreparedStatement pstmt = conn.prepare(mark);
+            for (LocalRow row : batch) {
+                SyncRecord winner = remoteWins.get(key(table, row.data()));
+                if (winner != null && winner.updatedAt() > row.version()) {
+                    int applied = applyRemote(conn, table, row, winner);
+                    if (applied > 0 && table.name().equals("users")) {
+                        replacedUsers.add((String) row.data().get("id"));
+                    }
+                    count += applied;
+                    continue;
+                }
+                pstmt.setLong(1, row.rowid());
+                pstmt.setLong(2, row.version());
+                count += pstmt.executeUpdate();
+            }
+            return count;
+        });
+        for (String userId : replacedUsers) {
+            for (Consumer<String> listener : userListeners) {
+                listener.accept(userId);
+            }
+        }
+        return synced;
+    }
+
+    private int applyRemote(PooledConnection conn, Table table, LocalRow row, SyncRecord winner)
+            throws SQLException {
+        List<String> columns = new ArrayList<>();
+        for (String column : table.columns()) {
+            if (!table.keyColumns().contains(column) && winner.data().containsKey(column)) {
+                columns.add(column);
+            }
+        }
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table.name()).append(" SET ");
+        for (String column : columns) {
+            sql.append(column).append(" = ?, ");
+        }
+        sql.append("sync_status = 'SYNCED' WHERE rowid = ? AND ").append(table.version()).append(" = ?");
+
+        PreparedStatement pstmt = conn.prepare(sql.toString());
+        int param = 1;
+        for (String column : columns) {
+            pstmt.setObject(param++, winner.data().get(column));
+        }
+        pstmt.setLong(param++, row.rowid());
+        pstmt.setLong(param, row.version());
+        return pstmt.executeUpdate();
+    }
+
+    /**
+     * Push queued operations. Each entry is retried with exponential backoff
+     * from its last failure; entries that exhaust MAX_RETRIES stay in the
+     * queue as dead letters.
+     */
+    private long syncQueue() throws Exception {
+        String select = "SELECT id, entity_type, entity_id, operation, payload, created_at FROM sync_queue " +
+                "WHERE id > ? AND retry_count < ? AND next_attempt_at <= ? ORDER BY id LIMIT ?";
+        long cursor = 0;
+        long synced = 0;
+
+        while (true) {
+            long after = cursor;
+            long now = System.currentTimeMillis();
+            Map<String, List<QueuedOp>> byType = new LinkedHashMap<>();
+            int fetched = db.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(select);
+                pstmt.setLong(1, after);
+                pstmt.setInt(2, MAX_RETRIES);
+                pstmt.setLong(3, now);
+                pstmt.setInt(4, BATCH_SIZE);
+                int count = 0;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        count++;
+                        byType.computeIfAbsent(rs.getString("entity_type"), k -> new ArrayList<>())
+                                .add(new QueuedOp(rs.getLong("id"), new SyncRecord(
+                                    rs.getString("entity_id"),
+                                    rs.getString("operation"),
+                                    rs.getLong("created_at"),
+                                    parsePayload(rs.getString("payload")))));
+                    }
+                }
+                return count;
+            });
+            if (fetched == 0) {
+                return synced;
+            }
+
+            for (Map.Entry<String, List<QueuedOp>> entry : byType.entrySet()) {
+                List<QueuedOp> ops = entry.getValue();
+                List<SyncRecord> records = new ArrayList<>(ops.size());
+                for (QueuedOp op : ops) {
+                    records.add(op.record());
+                    cursor = Math.max(cursor, op.id());
+                }
+                try {
+                    remote.push(entry.getKey(), records);
+                } catch (Exception e) {
+                    updateQueue(MARK_QUEUE_FAILED, ops, System.currentTimeMillis(), RETRY_BASE_MS);
+                    throw e;
+                }
+                updateQueue(DELETE_QUEUED, ops);
+                synced += ops.size();
+            }
+
+            if (fetched < BATCH_SIZE) {
+                return synced;
+            }
+        }
+    }
+
+    /**
+     * Run sql once per op, binding params first and the op's id last.
+     */
+    private void updateQueue(String sql, List<QueuedOp> ops, long... params) throws SQLException {
+        db.transaction(conn -> {
+            PreparedStatement pstmt = conn.prepare(sql);
+            for (QueuedOp op : ops) {
+                for (int i = 0; i < params.length; i++) {
+                    pstmt.setLong(i + 1, params[i]);
+                }
+                pstmt.setLong(params.length + 1, op.id());
+                pstmt.addBatch();
+            }
+            return pstmt.executeBatch();
+        });
+    }
+
+    private void refreshBacklog() {
+        String directoryBacklog = dirtyCount(false) + " + (SELECT COUNT(*) FROM sync_queue WHERE retry_count < "
+                + MAX_RETRIES + ")";
+        String dead = "(SELECT COUNT(*) FROM sync_queue WHERE retry_count >= " + MAX_RETRIES + ")";
+        try {
+            long[] totals = count(db, directoryBacklog, dead);
+            for (DatabaseService shard : storage.shards()) {
+                totals[0] += count(shard, dirtyCount(true), "0")[0];
+            }
+            backlog = totals[0];
+            deadLetters = totals[1];
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * SQL summing the DIRTY rows of the per-user tables or of the others.
+     */
+    private static String dirtyCount(boolean perUser) {
+        StringBuilder sql = new StringBuilder("0");
+        for (Table table : TABLES) {
+            if (table.perUser() == perUser) {
+                sql.append(" + (SELECT COUNT(*) FROM ").append(table.name()).append(" WHERE sync_status = 'DIRTY')");
+            }
+        }
+        return sql.toString();
+    }
+
+    private static long[] count(DatabaseService db, String backlog, String dead) throws SQLException {
+        String sql = "SELECT " + backlog + " AS backlog, " + dead + " AS dead";
+        return db.read(conn -> {
+            try (ResultSet rs = conn.prepare(sql).executeQuery()) {
+                return rs.next() ? new long[] {rs.getLong("backlog"), rs.getLong("dead")} : new long[2];
+            }
+        });
+    }
+
+    private Map<String, Object> parsePayload(String payload) {
+        try {
+            return mapper.readValue(payload, MAP);
+        } catch (Exception e) {
+            Map<String, Object> raw = new HashMap<>();
+            raw.put("payload", payload);
+            return raw;
+        }
+    }
+
+    private static String key(Table table, Map<String, Object> data) {
+        if (table.keyColumns().size() == 1) {
+            return String.valueOf(data.get(table.keyColumns().get(0)));
+        }
+        StringBuilder key = new StringBuilder();
+        for (String column : table.keyColumns()) {
+            if (key.length() > 0) {
+                key.append('/');
+            }
+            key.append(data.get(column));
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,395 @@
+package com.clearner.services;
+
+import com.clearner.Json;
+import com.clearner.storage.PooledConnection;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bulk export and import of learner data as gzip-compressed NDJSON.
+ * The first line is a header, then one line per row:
+ * {"table":"users","data":{...}}. Tables are written in dependency order
+ * (users first) so an import can stream straight through.
+ *
+ * Export pages through each table by rowid, copying one page into memory
+ * and releasing the connection before writing it, so memory use does not
+ * depend on table size and a slow download never holds a pooled reader.
+ * Import reads the stream in chunks and applies each chunk in one
+ * transaction; the writer lock is never held while waiting on the network.
+ * With sharded storage, learner tables are exported shard by shard and
+ * imported rows are grouped by their learner's shard, one transaction per
+ * shard.
+ *
+ * Rows keep their sync_status in the export, but imported rows are always
+ * written as DIRTY: the remote this install syncs with has not seen them,
+ * and retention only archives rows that were synced from here.
+ */
+public class TransferService {
+
+    public static final String FORMAT = "clearner-export";
+    public static final int VERSION = 1;
+
+    public record ImportResult(long users, long remappedUsers, long progress, long preferences, long events,
+                               long skipped, double elapsedMs) {}
+
+    private record Table(String name, List<String> columns) {}
+
+    private static final List<Table> TABLES = List.of(
+        new Table("users", List.of("id", "display_name", "created_at", "last_active_at", "sync_status")),
+        new Table("lessons_progress",
+                List.of("user_id", "lesson_id", "current_step", "completed", "updated_at", "sync_status")),
+        new Table("user_preferences", List.of("user_id", "key", "value", "updated_at", "sync_status")),
+        new Table("lesson_step_events",
+                List.of("user_id", "lesson_id", "step_index", "event_type", "created_at", "sync_status"))
+    );
+
+    private static final int EXPORT_PAGE_ROWS = 5000;
+    private static final int IMPORT_CHUNK_ROWS = 10_000;
+
+    private static final String SELECT_USER_BY_NAME = "SELECT id FROM users WHERE display_name = ?";
+    private static final String UPSERT_USER =
+            "INSERT INTO users (id, display_name, created_at, last_active_at, sync_status) " +
+            "VALUES (?, ?, ?, ?, 'DIRTY') " +
+            "ON CONFLICT(id) DO UPDATE SET " +
+            "created_at = MIN(created_at, excluded.created_at), " +
+            "last_active_at = MAX(COALESCE(last_active_at, 0), COALESCE(excluded.last_active_at, 0))";
+    private static final String UPSERT_PROGRESS =
+            "INSERT INTO lessons_progress (user_id, lesson_id, current_step, completed, updated_at, sync_status) " +
+            "VALUES (?, ?, ?, ?, ?, 'DIRTY') " +
+            "ON CONFLICT(user_id, lesson_id) DO UPDATE SET " +
+            "current_step = excluded.current_step, completed = excluded.completed, " +
+            "updated_at = excluded.updated_at, sync_status = 'DIRTY' " +
+            "WHERE excluded.updated_at > lessons_progress.updated_at";
+    private static final String UPSERT_PREFERENCE =
+            "INSERT INTO user_preferences (user_id, key, value, updated_at, sync_status) " +
+            "VALUES (?, ?, ?, ?, 'DIRTY') " +
+            "ON CONFLICT(user_id, key) DO UPDATE SET " +
+            "value = excluded.value, updated_at = excluded.updated_at, sync_status = 'DIRTY' " +
+            "WHERE excluded.updated_at > user_preferences.updated_at";
+    // Events have no key of their own; an identical event already present is skipped
+    private static final String INSERT_EVENT =
+            "INSERT INTO lesson_step_events (user_id, lesson_id, step_index, event_type, created_at, sync_status) " +
+            "SELECT ?, ?, ?, ?, ?, 'DIRTY' WHERE NOT EXISTS (SELECT 1 FROM lesson_step_events " +
+            "WHERE user_id = ? AND lesson_id = ? AND created_at = ? AND step_index = ? AND event_type = ?)";
+
+    private final ShardedStorage storage;
+    private final List<Consumer<String>> userListeners = new CopyOnWriteArrayList<>();
+
+    public TransferService(ShardedStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Be notified with the id of every user row an import wrote, after
+     * its transaction is committed.
+     */
+    public void addUserListener(Consumer<String> listener) {
+        userListeners.add(listener);
+    }
+
+    /**
+     * Write every exported table to out as gzip NDJSON. Does not close out.
+     */
+    public void export(OutputStream out) throws IOException, SQLException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024) {
+            {
+                // Export size is dominated by the event table; favour throughput over ratio
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        try (JsonGenerator gen = Json.MAPPER.createGenerator(gzip)) {
+            gen.setRootValueSeparator(new SerializedString("\n"));
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+            gen.writeStartObject();
+            gen.writeStringField("format", FORMAT);
+            gen.writeNumberField("version", VERSION);
+            gen.writeNumberField("exportedAt", System.currentTimeMillis());
+            gen.writeEndObject();
+
+            for (Table table : TABLES) {
+                // Only users live in the directory; the other tables are per learner
+                boolean perUser = !table.name().equals("users");
+                for (DatabaseService db : perUser ? storage.shards() : List.of(storage.directory())) {
+                    exportTable(db, table, gen);
+                }
+            }
+            gen.writeRaw('\n');
+        }
+        gzip.finish();
+        gzip.flush();
+    }
+
+    private void exportTable(DatabaseService db, Table table, JsonGenerator gen) throws SQLException, IOException {
+        String select = "SELECT rowid, " + String.join(", ", table.columns()) + " FROM " + table.name() +
+                " WHERE rowid > ? ORDER BY rowid LIMIT " + EXPORT_PAGE_ROWS;
+        int width = table.columns().size();
+        long cursor = 0;
+        while (true) {
+            long after = cursor;
+            long[] last = {-1};
+            // Copy the page out first: writing to a slow client must not hold a pooled reader
+            List<Object[]> page = db.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(select);
+                pstmt.setLong(1, after);
+                List<Object[]> rows = new ArrayList<>(EXPORT_PAGE_ROWS);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        last[0] = rs.getLong(1);
+                        Object[] row = new Object[width];
+                        for (int i = 0; i < width; i++) {
+                            row[i] = rs.getObject(i + 2);
+                        }
+                        rows.add(row);
+                    }
+                }
+                return rows;
+            });
+            for (Object[] row : page) {
+                writeRow(gen, table, row);
+            }
+            if (page.size() < EXPORT_PAGE_ROWS) {
+                return;
+            }
+            cursor = last[0];
+        }
+    }
+
+    private static void writeRow(JsonGenerator gen, Table table, Object[] row) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("table", table.name());
+        gen.writeObjectFieldStart("data");
+        for (int i = 0; i < row.length; i++) {
+            Object value = row[i];
+            gen.writeFieldName(table.columns().get(i));
+            if (value == null) {
+                gen.writeNull();
+            } else if (value instanceof String text) {
+                gen.writeString(text);
+            } else {
+                gen.writeNumber(((Number) value).longValue());
+            }
+        }
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    /**
+     * Import an export stream, gzip-compressed or plain NDJSON.
+     * Rows are upserted: users by id (a user whose display name already
+     * belongs to another id is merged into that learner), progress and
+     * preferences when the imported row is newer, events when no identical
+     * event exists.
+     */
+    public ImportResult importFrom(InputStream in) throws IOException, SQLException {
+        long start = System.nanoTime();
+        Counts counts = new Counts();
+        Map<String, String> remap = new HashMap<>();
+
+        try (MappingIterator<JsonNode> lines = Json.MAPPER.readerFor(JsonNode.class).readValues(decompress(in))) {
+            String table = null;
+            List<JsonNode> chunk = new ArrayList<>(IMPORT_CHUNK_ROWS);
+            while (lines.hasNextValue()) {
+                JsonNode line = lines.nextValue();
+                if (line.has("format")) {
+                    if (!FORMAT.equals(line.path("format").asText()) || line.path("version").asInt() > VERSION) {
+                        throw new IOException("Unsupported export: " + line);
+                    }
+                    continue;
+                }
+
+                String lineTable = line.path("table").asText();
+                if (!lineTable.equals(table) || chunk.size() >= IMPORT_CHUNK_ROWS) {
+                    apply(table, chunk, remap, counts);
+                    chunk.clear();
+                    table = lineTable;
+                }
+                chunk.add(line.path("data"));
+            }
+            apply(table, chunk, remap, counts);
+        }
+
+        return new ImportResult(counts.users, remap.size(), counts.progress, counts.preferences, counts.events,
+                counts.skipped, (System.nanoTime() - start) / 1_000_000.0);
+    }
+
+    private static final class Counts {
+        long users;
+        long progress;
+        long preferences;
+        long events;
+        long skipped;
+    }
+
+    private void apply(String table, List<JsonNode> rows, Map<String, String> remap, Counts counts)
+            throws SQLException {
+        if (table == null || rows.isEmpty()) {
+            return;
+        }
+        if (table.equals("users")) {
+            List<String> written = new ArrayList<>();
+            storage.directory().transaction(conn -> counts.users += importUsers(conn, rows, remap, counts, written));
+            for (String userId : written) {
+                for (Consumer<String> listener : userListeners) {
+                    listener.accept(userId);
+                }
+            }
+            return;
+        }
+        Map<DatabaseService, List<JsonNode>> byShard = new LinkedHashMap<>();
+        for (JsonNode row : rows) {
+            String userId = row.path("user_id").asText(null);
+            if (userId == null) {
+                counts.skipped++;
+                continue;
+            }
+            byShard.computeIfAbsent(storage.forUser(remap.getOrDefault(userId, userId)), k -> new ArrayList<>())
+                    .add(row);
+        }
+        for (Map.Entry<DatabaseService, List<JsonNode>> shard : byShard.entrySet()) {
+            applyLearnerRows(shard.getKey(), table, shard.getValue(), remap, counts);
+        }
+    }
+
+    private void applyLearnerRows(DatabaseService db, String table, List<JsonNode> rows, Map<String, String> remap,
+                                  Counts counts) throws SQLException {
+        db.transaction(conn -> {
+            switch (table) {
+                case "lessons_progress" -> counts.progress += importRows(conn, UPSERT_PROGRESS, rows, remap, counts,
+                        (pstmt, row, userId) -> {
+                            pstmt.setString(1, userId);
+                            pstmt.setString(2, row.path("lesson_id").asText());
+                            pstmt.setInt(3, row.path("current_step").asInt());
+                            pstmt.setInt(4, row.path("completed").asInt());
+                            pstmt.setLong(5, row.path("updated_at").asLong());
+                        });
+                case "user_preferences" -> counts.preferences += importRows(conn, UPSERT_PREFERENCE, rows, remap,
+                        counts, (pstmt, row, userId) -> {
+                            pstmt.setString(1, userId);
+                            pstmt.setString(2, row.path("key").asText());
+                            pstmt.setString(3, row.path("value").asText());
+                            pstmt.setLong(4, row.path("updated_at").asLong());
+                        });
+                case "lesson_step_events" -> counts.events += importRows(conn, INSERT_EVENT, rows, remap, counts,
+                        (pstmt, row, userId) -> {
+                            String lessonId = row.path("lesson_id").asText();
+                            int stepIndex = row.path("step_index").asInt();
+                            String eventType = row.path("event_type").asText();
+                            long createdAt = row.path("created_at").asLong();
+                            pstmt.setString(1, userId);
+                            pstmt.setString(2, lessonId);
+                            pstmt.setInt(3, stepIndex);
+                            pstmt.setString(4, eventType);
+                            pstmt.setLong(5, createdAt);
+                            pstmt.setString(6, userId);
+                            pstmt.setString(7, lessonId);
+                            pstmt.setLong(8, createdAt);
+                            pstmt.setInt(9, stepIndex);
+                            pstmt.setString(10, eventType);
+                        });
+                default -> counts.skipped += rows.size();
+            }
+            return null;
+        });
+    }
+
+    private static long importUsers(PooledConnection conn, List<JsonNode> rows, Map<String, String> remap,
+                                    Counts counts, List<String> written) throws SQLException {
+        PreparedStatement byName = conn.prepare(SELECT_USER_BY_NAME);
+        PreparedStatement upsert = conn.prepare(UPSERT_USER);
+        long changed = 0;
+        for (JsonNode row : rows) {
+            String id = row.path("id").asText(null);
+            String displayName = row.path("display_name").asText(null);
+            if (id == null || displayName == null) {
+                counts.skipped++;
+                continue;
+            }
+
+            // Login is by display name, so a name that already exists here is the same learner
+            byName.setString(1, displayName);
+            try (ResultSet rs = byName.executeQuery()) {
+                if (rs.next() && !rs.getString(1).equals(id)) {
+                    remap.put(id, rs.getString(1));
+                    id = rs.getString(1);
+                }
+            }
+
+            long createdAt = row.path("created_at").asLong();
+            upsert.setString(1, id);
+            upsert.setString(2, displayName);
+            upsert.setLong(3, createdAt);
+            upsert.setLong(4, row.path("last_active_at").asLong(createdAt));
+            if (upsert.executeUpdate() > 0) {
+                written.add(id);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private interface RowBinder {
+        void bind(PreparedStatement pstmt, JsonNode row, String userId) throws SQLException;
+    }
+
+    private static long importRows(PooledConnection conn, String sql, List<JsonNode> rows, Map<String, String> remap,
+                                   Counts counts, RowBinder binder) throws SQLException {
+        PreparedStatement pstmt = conn.prepare(sql);
+        int batched = 0;
+        for (JsonNode row : rows) {
+            String userId = row.path("user_id").asText(null);
+            if (userId == null) {
+                counts.skipped++;
+                continue;
+            }
+            binder.bind(pstmt, row, remap.getOrDefault(userId, userId));
+            pstmt.addBatch();
+            batched++;
+        }
+        if (batched == 0) {
+            return 0;
+        }
+
+        long changed = 0;
+        for (int result : pstmt.executeBatch()) {
+            if (result > 0) {
+                changed += result;
+            } else {
+                counts.skipped++;
+            }
+        }
+        return changed;
+    }
+
+    private static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 64 * 1024);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return new GZIPInputStream(buffered, 64 * 1024);
+        }
+        return buffered;
+    }
+}
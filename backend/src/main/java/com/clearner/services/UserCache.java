@@ -0,0 +1,61 @@
+package com.clearner.services;
+
+import com.clearner.models.User;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of users, looked up by id or by display name.
+ * Cached users are shared between request threads and must not be
+ * modified; put a changed copy instead.
+ */
+public class UserCache {
+
+    private final int maxEntries;
+    private final Map<String, User> byId;
+    private final Map<String, String> idByName = new HashMap<>();
+
+    public UserCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.byId = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+                if (size() <= UserCache.this.maxEntries) {
+                    return false;
+                }
+                idByName.remove(eldest.getValue().getDisplayName(), eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    public synchronized User getById(String id) {
+        return byId.get(id);
+    }
+
+    public synchronized User getByName(String displayName) {
+        String id = idByName.get(displayName);
+        return id != null ? byId.get(id) : null;
+    }
+
+    public synchronized void put(User user) {
+        byId.put(user.getId(), user);
+        idByName.put(user.getDisplayName(), user.getId());
+    }
+
+    /**
+     * Drop a user whose row was changed outside UserService.
+     */
+    public synchronized void invalidate(String id) {
+        User user = byId.remove(id);
+        if (user != null) {
+            idByName.remove(user.getDisplayName(), id);
+        }
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+}
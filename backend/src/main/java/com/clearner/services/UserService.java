@@ -1,51 +1,77 @@
 package com.clearner.services;
 
 import com.clearner.models.User;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.clearner.storage.PooledConnection;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class UserService {
 
+    private static final String SELECT_BY_NAME = "SELECT * FROM users WHERE display_name = ?";
+    private static final String SELECT_BY_ID = "SELECT * FROM users WHERE id = ?";
+    private static final String INSERT_USER =
+            "INSERT INTO users (id, display_name, created_at, last_active_at, sync_status) VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE_LAST_ACTIVE =
+            "UPDATE users SET last_active_at = ?, sync_status = 'DIRTY' " +
+            "WHERE id = ? AND (last_active_at IS NULL OR last_active_at < ?)";
+
+    private static final int USER_CACHE_SIZE = 10_000;
+    private static final long LAST_ACTIVE_FLUSH_MS = 5_000;
+
     private final DatabaseService db;
-    private final ObjectMapper mapper;
+    private final UserCache cache = new UserCache(USER_CACHE_SIZE);
+    private final Map<String, Long> pendingLastActive = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
 
     public UserService(DatabaseService db) {
         this.db = db;
-        this.mapper = new ObjectMapper();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "last-active-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushLastActive, LAST_ACTIVE_FLUSH_MS, LAST_ACTIVE_FLUSH_MS,
+                TimeUnit.MILLISECONDS);
     }
 
-    public String login(String displayName) {
-        try (Connection conn = db.getConnection()) {
-            String query = "SELECT * FROM users WHERE display_name = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
-                pstmt.setString(1, displayName);
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    User user = mapUser(rs);
-                    updateLastActive(conn, user.getId());
-                    return mapper.writeValueAsString(user);
-                }
+    public User login(String displayName) {
+        try {
+            User user = cache.getByName(displayName);
+            if (user == null) {
+                user = db.read(conn -> findByName(conn, displayName));
             }
+            if (user == null) {
+                // Lookup and insert run under the writer lock so two logins with the same name cannot race
+                user = db.write(conn -> {
+                    User existing = findByName(conn, displayName);
+                    if (existing != null) {
+                        return existing;
+                    }
 
-            String newId = UUID.randomUUID().toString();
-            long now = System.currentTimeMillis();
-            String insert = "INSERT INTO users (id, display_name, created_at, last_active_at, sync_status) VALUES (?, ?, ?, ?, ?)";
-            try (PreparedStatement pstmt = conn.prepareStatement(insert)) {
-                pstmt.setString(1, newId);
-                pstmt.setString(2, displayName);
-                pstmt.setLong(3, now);
-                pstmt.setLong(4, now);
-                pstmt.setString(5, "DIRTY");
-                pstmt.executeUpdate();
+                    String newId = UUID.randomUUID().toString();
+                    long now = System.currentTimeMillis();
+                    PreparedStatement insert = conn.prepare(INSERT_USER);
+                    insert.setString(1, newId);
+                    insert.setString(2, displayName);
+                    insert.setLong(3, now);
+                    insert.setLong(4, now);
+                    insert.setString(5, "DIRTY");
+                    insert.executeUpdate();
+
+                    return new User(newId, displayName, now, now, "DIRTY");
+                });
             }
 
-            User newUser = new User(newId, displayName, now, now, "DIRTY");
-            return mapper.writeValueAsString(newUser);
+            return touch(user);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -53,14 +79,73 @@ public class UserService {
         }
     }
 
-    private void updateLastActive(Connection conn, String userId) {
-        String update = "UPDATE users SET last_active_at = ?, sync_status = 'DIRTY' WHERE id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(update)) {
-            pstmt.setLong(1, System.currentTimeMillis());
-            pstmt.setString(2, userId);
-            pstmt.executeUpdate();
+    /**
+     * Record activity in memory; last_active_at is written in batches by flushLastActive.
+     * Cached users are shared, so the cache gets an updated copy.
+     */
+    private User touch(User user) {
+        long now = System.currentTimeMillis();
+        User touched = user.withLastActiveAt(now);
+        cache.put(touched);
+        pendingLastActive.put(user.getId(), now);
+        return touched;
+    }
+
+    /**
+     * Forget the cached copy of a user whose row was rewritten elsewhere,
+     * e.g. by an import or by sync taking the remote version.
+     */
+    public void invalidate(String id) {
+        cache.invalidate(id);
+    }
+
+    /**
+     * Write debounced last_active_at values in one transaction.
+     */
+    public synchronized void flushLastActive() {
+        if (pendingLastActive.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> batch = new HashMap<>(pendingLastActive);
+        try {
+            db.transaction(conn -> {
+                PreparedStatement pstmt = conn.prepare(UPDATE_LAST_ACTIVE);
+                for (Map.Entry<String, Long> entry : batch.entrySet()) {
+                    pstmt.setLong(1, entry.getValue());
+                    pstmt.setString(2, entry.getKey());
+                    pstmt.setLong(3, entry.getValue());
+                    pstmt.addBatch();
+                }
+                return pstmt.executeBatch();
+            });
         } catch (SQLException e) {
             e.printStackTrace();
+            return;
+        }
+        for (Map.Entry<String, Long> entry : batch.entrySet()) {
+            pendingLastActive.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Flush pending last_active_at updates and stop the background writer.
+     */
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushLastActive();
+    }
+
+    private User findByName(PooledConnection conn, String displayName) throws SQLException {
+        PreparedStatement select = conn.prepare(SELECT_BY_NAME);
+        select.setString(1, displayName);
+        try (ResultSet rs = select.executeQuery()) {
+            return rs.next() ? mapUser(rs) : null;
         }
     }
 
@@ -75,15 +160,27 @@ public class UserService {
     }
     
     public User getUser(String id) {
-        try (Connection conn = db.getConnection()) {
-            String query = "SELECT * FROM users WHERE id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
+        User cached = cache.getById(id);
+        if (cached != null) {
+            return cached;
+        }
+
+        try {
+            User user = db.read(conn -> {
+                PreparedStatement pstmt = conn.prepare(SELECT_BY_ID);
                 pstmt.setString(1, id);
-                ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    return mapUser(rs);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? mapUser(rs) : null;
+                }
+            });
+            if (user != null) {
+                Long lastActive = pendingLastActive.get(id);
+                if (lastActive != null) {
+                    user = user.withLastActiveAt(lastActive);
                 }
+                cache.put(user);
             }
+            return user;
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -1,56 +1,353 @@
 package com.clearner.storage;
 
+import com.clearner.metrics.DatabaseMetrics;
+import org.sqlite.SQLiteConfig;
+
 import java.io.File;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Managed SQLite connection layer.
+ * SQLite allows a single writer at a time, so all writes go through one
+ * connection guarded by a lock, while reads are served by a small pool of
+ * read-only connections. The database runs in WAL mode so readers never
+ * block the writer.
+ *
+ * When offload is enabled, work submitted from virtual threads is run on a
+ * dedicated set of platform threads (one writer, one per reader connection).
+ * sqlite-jdbc blocks inside native code, which would otherwise pin the
+ * virtual thread's carrier for the whole statement.
+ */
+public class Database implements AutoCloseable {
+    public static final String DEFAULT_PATH = "data/clearner.db";
+    public static final int DEFAULT_READERS = 4;
 
-public class Database {
-    private static final String SQLITE_PATH = "./database.sqlite";
+    private static final int BUSY_TIMEOUT_MS = 5000;
+    private static final int INCREMENTAL_VACUUM = 2;
+    // Negative cache_size is in KiB rather than pages
+    private static final int CACHE_SIZE_KB = -16000;
 
-    // singleton connection
-    public Connection connection = null;
+    private final String url;
+    private final PooledConnection writer;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final DatabaseMetrics metrics;
+    private final BlockingQueue<PooledConnection> readers;
+    private final int readerCount;
+    private volatile ExecutorService writeExecutor;
+    private volatile ExecutorService readExecutor;
 
-    public Database() {
-        connection = init();
+    public Database() throws SQLException {
+        this(DEFAULT_PATH, DEFAULT_READERS);
     }
 
-    private Connection init() {
-        if (connection != null) {
-            return connection;
+    public Database(String path, int readerCount) throws SQLException {
+        this(path, readerCount, new DatabaseMetrics());
+    }
+
+    /**
+     * Open a database that records into existing metrics, so several files
+     * can be reported as one.
+     */
+    public Database(String path, int readerCount, DatabaseMetrics metrics) throws SQLException {
+        this.metrics = metrics;
+        File file = new File(path);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        this.url = "jdbc:sqlite:" + path;
+
+        // The writer opens first so the file exists and is switched to WAL before readers attach
+        this.writer = new PooledConnection(writerConfig().createConnection(url));
+        this.readerCount = readerCount;
+        this.readers = new ArrayBlockingQueue<>(readerCount);
+        for (int i = 0; i < readerCount; i++) {
+            readers.add(new PooledConnection(readerConfig().createConnection(url)));
         }
+    }
 
-        File file = new File(SQLITE_PATH);
+    /**
+     * Move database work issued from virtual threads onto dedicated platform threads.
+     */
+    public synchronized void enableOffload() {
+        if (writeExecutor != null) {
+            return;
+        }
+        writeExecutor = Executors.newSingleThreadExecutor(platformThreads("db-writer"));
+        readExecutor = Executors.newFixedThreadPool(readerCount, platformThreads("db-reader"));
+    }
 
-        if (!file.exists()) {
+    public boolean isOffloadEnabled() {
+        return writeExecutor != null;
+    }
+
+    /**
+     * Run work on a read-only connection from the pool.
+     */
+    public <T> T read(SqlWork<T> work) throws SQLException {
+        ExecutorService executor = readExecutor;
+        if (executor != null && Thread.currentThread().isVirtual()) {
+            return offload(executor, () -> readDirect(work));
+        }
+        return readDirect(work);
+    }
+
+    private <T> T readDirect(SqlWork<T> work) throws SQLException {
+        PooledConnection conn;
+        try {
+            conn = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a read connection", e);
+        }
+        long start = System.nanoTime();
+        try {
+            return work.run(conn);
+        } catch (SQLException e) {
+            metrics.recordError(e);
+            throw e;
+        } finally {
+            readers.offer(conn);
+            metrics.reads().record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Run work on the single writer connection in auto-commit mode.
+     */
+    public <T> T write(SqlWork<T> work) throws SQLException {
+        ExecutorService executor = writeExecutor;
+        if (executor != null && Thread.currentThread().isVirtual()) {
+            return offload(executor, () -> writeDirect(work));
+        }
+        return writeDirect(work);
+    }
+
+    private <T> T writeDirect(SqlWork<T> work) throws SQLException {
+        lockWriter();
+        long start = System.nanoTime();
+        try {
+            return work.run(writer);
+        } catch (SQLException e) {
+            metrics.recordError(e);
+            throw e;
+        } finally {
+            writeLock.unlock();
+            metrics.writes().record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Run work on the writer connection inside one transaction.
+     * The transaction is rolled back if the work throws.
+     */
+    public <T> T transaction(SqlWork<T> work) throws SQLException {
+        ExecutorService executor = writeExecutor;
+        if (executor != null && Thread.currentThread().isVirtual()) {
+            return offload(executor, () -> transactionDirect(work));
+        }
+        return transactionDirect(work);
+    }
+
+    private <T> T transactionDirect(SqlWork<T> work) throws SQLException {
+        lockWriter();
+        long start = System.nanoTime();
+        try {
+            writer.raw().setAutoCommit(false);
             try {
-                file.createNewFile();
-            } catch (Exception e) {
-                e.printStackTrace();
+                T result = work.run(writer);
+                writer.raw().commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                writer.raw().rollback();
+                throw e;
+            } finally {
+                writer.raw().setAutoCommit(true);
             }
+        } catch (SQLException e) {
+            metrics.recordError(e);
+            throw e;
+        } finally {
+            writeLock.unlock();
+            metrics.transactions().record(System.nanoTime() - start);
         }
+    }
+
+    private void lockWriter() {
+        long start = System.nanoTime();
+        writeLock.lock();
+        metrics.writeLockWait().record(System.nanoTime() - start);
+    }
 
+    public boolean execute(String sql) {
         try {
-            return DriverManager.getConnection("jdbc:sqlite:" + SQLITE_PATH);
+            return write(conn -> {
+                try (Statement statement = conn.raw().createStatement()) {
+                    return statement.execute(sql);
+                }
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
-        return null;
+        return false;
     }
 
-    public boolean execute(String sql) {
+    /**
+     * Insert one row with bound parameters.
+     * Table and column names must come from code, never from user input.
+     */
+    public boolean insert(String table, String columns, Object... values) {
+        String placeholders = "?" + ", ?".repeat(Math.max(0, values.length - 1));
+        String sql = "INSERT INTO " + table + " (" + columns + ") VALUES (" + placeholders + ")";
         try {
-            Statement statement = connection.createStatement();
-            return statement.execute(sql);
+            return write(conn -> {
+                PreparedStatement pstmt = conn.prepare(sql);
+                for (int i = 0; i < values.length; i++) {
+                    pstmt.setObject(i + 1, values[i]);
+                }
+                return pstmt.executeUpdate() > 0;
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
         return false;
     }
 
-    public boolean insert(String table, String columns, String values) {
-        String sql = String.format("INSERT INTO %s (%s) VALUES (%s)", table, columns, values);
-        return execute(sql);
+    /**
+     * Switch the file to incremental auto-vacuum so pages freed by deletes
+     * can be handed back in small steps. Converting an existing database
+     * takes one full VACUUM, which rewrites the file under the writer lock
+     * and needs about twice its size on disk, so a file larger than
+     * maxPages is left alone. Returns whether the file uses incremental
+     * auto-vacuum afterwards.
+     */
+    public boolean enableIncrementalVacuum(long maxPages) throws SQLException {
+        return write(conn -> {
+            try (Statement stmt = conn.raw().createStatement()) {
+                if (pragma(stmt, "auto_vacuum") == INCREMENTAL_VACUUM) {
+                    return true;
+                }
+                if (pragma(stmt, "page_count") > maxPages) {
+                    return false;
+                }
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                stmt.execute("VACUUM");
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Return up to pages free pages to the file system.
+     * Returns the number of pages released.
+     */
+    public long incrementalVacuum(int pages) throws SQLException {
+        return write(conn -> {
+            try (Statement stmt = conn.raw().createStatement()) {
+                long before = freelistCount(stmt);
+                if (before == 0) {
+                    return 0L;
+                }
+                // The pragma frees one page per step; executeUpdate steps it to completion, execute would not
+                stmt.executeUpdate("PRAGMA incremental_vacuum(" + Math.max(1, pages) + ")");
+                return before - freelistCount(stmt);
+            }
+        });
+    }
+
+    private static long freelistCount(Statement stmt) throws SQLException {
+        return pragma(stmt, "freelist_count");
+    }
+
+    private static long pragma(Statement stmt, String name) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public void close() {
+        if (writeExecutor != null) {
+            writeExecutor.shutdown();
+            readExecutor.shutdown();
+        }
+        writeLock.lock();
+        try {
+            writer.close();
+        } finally {
+            writeLock.unlock();
+        }
+        PooledConnection conn;
+        while ((conn = readers.poll()) != null) {
+            conn.close();
+        }
+    }
+
+    private static <T> T offload(ExecutorService executor, Callable<T> task) throws SQLException {
+        try {
+            return executor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for database work", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    private static ThreadFactory platformThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static SQLiteConfig writerConfig() {
+        SQLiteConfig config = baseConfig();
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        // foreign_keys stays at SQLite's default (off), matching the old per-call connections
+        return config;
+    }
+
+    private static SQLiteConfig readerConfig() {
+        SQLiteConfig config = baseConfig();
+        config.setReadOnly(true);
+        return config;
+    }
+
+    private static SQLiteConfig baseConfig() {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(BUSY_TIMEOUT_MS);
+        config.setCacheSize(CACHE_SIZE_KB);
+        config.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        return config;
     }
 }
@@ -0,0 +1,144 @@
+package com.clearner.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned schema migrations.
+ * Scripts live on the classpath under db/migration as V{version}__{name}.sql
+ * and are listed in order in SCRIPTS. Applied versions are recorded in
+ * schema_migrations; pending scripts run together in one transaction, and a
+ * database that is already current costs a single version query.
+ */
+public final class Migrations {
+
+    private static final String LOCATION = "/db/migration/";
+    private static final List<String> SCRIPTS = List.of(
+        "V1__baseline.sql",
+        "V2__users_display_name_index.sql",
+        "V3__lesson_step_stats.sql",
+        "V4__step_events_time_index.sql",
+        "V5__notification_dispatch.sql",
+        "V6__sync_queue_next_attempt.sql"
+    );
+
+    private static final String SELECT_VERSION = "SELECT MAX(version) FROM schema_migrations";
+    private static final String INSERT_VERSION = "INSERT INTO schema_migrations (version, applied_at) VALUES (?, ?)";
+
+    private Migrations() {}
+
+    public static int latestVersion() {
+        return version(SCRIPTS.get(SCRIPTS.size() - 1));
+    }
+
+    /**
+     * Bring the database up to the latest version.
+     * Returns the number of migrations applied.
+     */
+    public static int migrate(Database database) throws SQLException {
+        int latest = latestVersion();
+        if (database.write(Migrations::currentVersion) >= latest) {
+            return 0;
+        }
+
+        return database.transaction(conn -> {
+            try (Statement stmt = conn.raw().createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                             "version INTEGER PRIMARY KEY, " +
+                             "applied_at INTEGER NOT NULL)");
+            }
+
+            int current = currentVersion(conn);
+            int applied = 0;
+            for (String script : SCRIPTS) {
+                int version = version(script);
+                if (version <= current) {
+                    continue;
+                }
+
+                try (Statement stmt = conn.raw().createStatement()) {
+                    for (String sql : statements(load(script))) {
+                        stmt.execute(sql);
+                    }
+                } catch (SQLException e) {
+                    throw new SQLException("Migration " + script + " failed: " + e.getMessage(), e);
+                }
+
+                PreparedStatement insert = conn.prepare(INSERT_VERSION);
+                insert.setInt(1, version);
+                insert.setLong(2, System.currentTimeMillis());
+                insert.executeUpdate();
+
+                System.out.println("Applied migration " + script);
+                applied++;
+            }
+            return applied;
+        });
+    }
+
+    private static int currentVersion(PooledConnection conn) throws SQLException {
+        try (Statement stmt = conn.raw().createStatement(); ResultSet rs = stmt.executeQuery(SELECT_VERSION)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            if (e.getMessage() != null && e.getMessage().contains("no such table")) {
+                return 0;
+            }
+            throw e;
+        }
+    }
+
+    private static int version(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    private static String load(String script) throws SQLException {
+        try (InputStream in = Migrations.class.getResourceAsStream(LOCATION + script)) {
+            if (in == null) {
+                throw new SQLException("Migration script not found: " + LOCATION + script);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Failed to read migration " + script, e);
+        }
+    }
+
+    /**
+     * Split a script into statements on lines ending with ';'.
+     * Trigger bodies are kept together until their closing END;.
+     */
+    static List<String> statements(String script) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inTrigger = false;
+
+        for (String line : script.split("\n")) {
+            String trimmed = line.strip();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            if (current.isEmpty() && trimmed.toUpperCase().matches("CREATE\\s+(TEMP\\s+)?TRIGGER\\b.*")) {
+                inTrigger = true;
+            }
+
+            current.append(line).append('\n');
+            boolean end = inTrigger ? trimmed.equalsIgnoreCase("END;") : trimmed.endsWith(";");
+            if (end) {
+                statements.add(current.toString().strip());
+                current.setLength(0);
+                inTrigger = false;
+            }
+        }
+
+        if (!current.toString().isBlank()) {
+            statements.add(current.toString().strip());
+        }
+        return statements;
+    }
+}
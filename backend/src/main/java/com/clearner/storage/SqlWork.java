@@ -0,0 +1,11 @@
+package com.clearner.storage;
+
+import java.sql.SQLException;
+
+/**
+ * A unit of database work run against a pooled connection.
+ */
+@FunctionalInterface
+public interface SqlWork<T> {
+    T run(PooledConnection conn) throws SQLException;
+}
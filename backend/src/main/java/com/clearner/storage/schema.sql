@@ -1,3 +1,6 @@
+-- Reference copy of the full schema. Databases are built and upgraded by the
+-- numbered scripts in src/main/resources/db/migration.
+
 PRAGMA foreign_keys = ON;
 
 CREATE TABLE schema_migrations (
@@ -63,7 +66,8 @@ CREATE TABLE sync_queue (
   operation TEXT NOT NULL,
   payload TEXT NOT NULL,
   created_at INTEGER NOT NULL,
-  retry_count INTEGER NOT NULL DEFAULT 0
+  retry_count INTEGER NOT NULL DEFAULT 0,
+  next_attempt_at INTEGER NOT NULL DEFAULT 0
 );
 
 
@@ -73,20 +77,40 @@ CREATE TABLE external_notifications (
   message TEXT NOT NULL,
   status TEXT NOT NULL DEFAULT 'PENDING',
   created_at INTEGER NOT NULL,
-  sent_at INTEGER
+  sent_at INTEGER,
+  attempts INTEGER NOT NULL DEFAULT 0,
+  next_attempt_at INTEGER NOT NULL DEFAULT 0,
+  dedupe_key TEXT
+);
+
+CREATE TABLE lesson_step_stats (
+  lesson_id TEXT NOT NULL,
+  step_index INTEGER NOT NULL,
+  event_type TEXT NOT NULL,
+  event_count INTEGER NOT NULL DEFAULT 0,
+  learner_sketch BLOB NOT NULL,
+  first_event_at INTEGER NOT NULL,
+  last_event_at INTEGER NOT NULL,
+  PRIMARY KEY (lesson_id, step_index, event_type)
 );
 
 CREATE INDEX idx_users_last_active
 ON users(last_active_at);
 
+CREATE UNIQUE INDEX idx_users_display_name
+ON users(display_name);
+
 CREATE INDEX idx_lessons_progress_updated
 ON lessons_progress(updated_at);
 
-CREATE INDEX idx_step_events_user_lesson
-ON lesson_step_events(user_id, lesson_id);
+CREATE INDEX idx_step_events_user_lesson_time
+ON lesson_step_events(user_id, lesson_id, created_at);
 
 CREATE INDEX idx_sync_queue_retry
 ON sync_queue(retry_count);
 
-CREATE INDEX idx_notifications_status
-ON external_notifications(status);
+CREATE INDEX idx_notifications_claim
+ON external_notifications(status, provider);
+
+CREATE UNIQUE INDEX idx_notifications_dedupe
+ON external_notifications(dedupe_key) WHERE dedupe_key IS NOT NULL;
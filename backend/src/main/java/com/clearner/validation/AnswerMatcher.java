@@ -0,0 +1,50 @@
+package com.clearner.validation;
+
+import java.util.List;
+
+/**
+ * A step's expected answer, compiled once when the lesson is loaded.
+ *
+ * Expected answers are written as in the lesson YAML: markup in which
+ * ".*" (or "(.*)") stands for anything. Answers containing tags are
+ * compared token by token, ignoring whitespace, case, comments and extra
+ * attributes; ".*" inside a tag only means other attributes may appear.
+ * Answers without tags are compared as normalized text.
+ */
+public interface AnswerMatcher {
+
+    CheckResult check(String code);
+
+    static AnswerMatcher compile(String expected) {
+        String source = expected.replace("(.*)", ".*");
+        StringBuilder prepared = new StringBuilder(source.length());
+        boolean inTag = false;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            char next = i + 1 < source.length() ? source.charAt(i + 1) : 0;
+            if (c == '.' && next == '*') {
+                prepared.append(inTag ? ' ' : HtmlTokenizer.GAP_MARK);
+                i++;
+            } else if (c == '\\' && next != 0) {
+                // Regex escapes in existing lessons only ever mean the literal character
+                prepared.append(next);
+                i++;
+            } else {
+                if (c == '<' && (Character.isLetter(next) || next == '/' || next == '!')) {
+                    inTag = true;
+                } else if (c == '>') {
+                    inTag = false;
+                }
+                prepared.append(c);
+            }
+        }
+
+        List<HtmlToken> tokens = HtmlTokenizer.tokenizePattern(prepared.toString());
+        for (HtmlToken token : tokens) {
+            if (token.kind != HtmlToken.Kind.TEXT && token.kind != HtmlToken.Kind.GAP) {
+                return new TokenMatcher(tokens);
+            }
+        }
+        return new TextMatcher(prepared.toString());
+    }
+}
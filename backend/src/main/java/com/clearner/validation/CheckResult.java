@@ -0,0 +1,14 @@
+package com.clearner.validation;
+
+/**
+ * Outcome of checking an answer. hint names the first expected piece
+ * that could not be found, or is null when the answer passed.
+ */
+public record CheckResult(boolean passed, String hint) {
+
+    public static final CheckResult PASS = new CheckResult(true, null);
+
+    public static CheckResult fail(String hint) {
+        return new CheckResult(false, hint);
+    }
+}
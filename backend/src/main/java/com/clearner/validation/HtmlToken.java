@@ -0,0 +1,70 @@
+package com.clearner.validation;
+
+/**
+ * One normalized piece of HTML: a tag, a doctype or a run of text.
+ * Names are lower-cased and text has its whitespace collapsed, so two
+ * tokens compare equal regardless of formatting. attrs holds name/value
+ * pairs; in a pattern a null value accepts any value.
+ */
+final class HtmlToken {
+
+    enum Kind { OPEN, CLOSE, DOCTYPE, TEXT, GAP }
+
+    static final HtmlToken GAP = new HtmlToken(Kind.GAP, "", new String[0]);
+
+    final Kind kind;
+    final String value;
+    final String[] attrs;
+
+    HtmlToken(Kind kind, String value, String[] attrs) {
+        this.kind = kind;
+        this.value = value;
+        this.attrs = attrs;
+    }
+
+    /**
+     * True if this pattern token accepts the submitted token. Submitted
+     * tags may carry attributes the pattern does not mention.
+     */
+    boolean accepts(HtmlToken submitted) {
+        if (kind != submitted.kind || !value.equals(submitted.value)) {
+            return false;
+        }
+        for (int i = 0; i < attrs.length; i += 2) {
+            String actual = submitted.attr(attrs[i]);
+            if (actual == null || (attrs[i + 1] != null && !attrs[i + 1].equals(actual))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String attr(String name) {
+        for (int i = 0; i < attrs.length; i += 2) {
+            if (attrs[i].equals(name)) {
+                return attrs[i + 1] != null ? attrs[i + 1] : "";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case OPEN -> {
+                StringBuilder tag = new StringBuilder("<").append(value);
+                for (int i = 0; i < attrs.length; i += 2) {
+                    tag.append(' ').append(attrs[i]);
+                    if (attrs[i + 1] != null) {
+                        tag.append("=\"").append(attrs[i + 1]).append('"');
+                    }
+                }
+                yield tag.append('>').toString();
+            }
+            case CLOSE -> "</" + value + ">";
+            case DOCTYPE -> "<!" + value + ">";
+            case TEXT -> value;
+            case GAP -> "...";
+        };
+    }
+}
@@ -0,0 +1,247 @@
+package com.clearner.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass HTML tokenizer for answer checking.
+ * It is deliberately forgiving: it does not build a tree, check nesting
+ * or decode entities, it only turns markup into a flat list of normalized
+ * tags and text. Comments and whitespace-only text are dropped.
+ */
+final class HtmlTokenizer {
+
+    /** Marks a wildcard in a prepared pattern. */
+    static final char GAP_MARK = '\u0000';
+
+    private static final String[] NO_ATTRS = new String[0];
+
+    private final String html;
+    private final boolean pattern;
+    private final List<HtmlToken> tokens = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+    private int pos;
+
+    private HtmlTokenizer(String html, boolean pattern) {
+        this.html = html;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Tokenize submitted code.
+     */
+    static List<HtmlToken> tokenize(String html) {
+        return new HtmlTokenizer(html, false).run();
+    }
+
+    /**
+     * Tokenize a prepared pattern: GAP_MARK becomes a GAP token and an
+     * attribute written as name= with no value accepts any value.
+     */
+    static List<HtmlToken> tokenizePattern(String prepared) {
+        return new HtmlTokenizer(prepared, true).run();
+    }
+
+    /**
+     * Lower-case text and collapse runs of whitespace to one space.
+     */
+    static void appendNormalized(StringBuilder out, char c) {
+        if (Character.isWhitespace(c)) {
+            if (!out.isEmpty() && out.charAt(out.length() - 1) != ' ') {
+                out.append(' ');
+            }
+        } else {
+            out.append(Character.toLowerCase(c));
+        }
+    }
+
+    private List<HtmlToken> run() {
+        int n = html.length();
+        while (pos < n) {
+            char c = html.charAt(pos);
+            if (pattern && c == GAP_MARK) {
+                flushText();
+                tokens.add(HtmlToken.GAP);
+                pos++;
+            } else if (c == '<' && pos + 1 < n && startsMarkup(html.charAt(pos + 1))) {
+                readMarkup();
+            } else {
+                appendNormalized(text, c);
+                pos++;
+            }
+        }
+        flushText();
+        return tokens;
+    }
+
+    private boolean startsMarkup(char next) {
+        return isNameStart(next) || next == '!' || (next == '/' && pos + 2 < html.length() && isNameStart(html.charAt(pos + 2)));
+    }
+
+    private void readMarkup() {
+        // A comment does not end the text around it
+        if (html.startsWith("<!--", pos)) {
+            int end = html.indexOf("-->", pos + 4);
+            pos = end < 0 ? html.length() : end + 3;
+            return;
+        }
+        flushText();
+
+        char next = html.charAt(pos + 1);
+        if (next == '!') {
+            int end = indexOrEnd('>', pos + 2);
+            StringBuilder doctype = new StringBuilder();
+            for (int i = pos + 2; i < end; i++) {
+                appendNormalized(doctype, html.charAt(i));
+            }
+            tokens.add(new HtmlToken(HtmlToken.Kind.DOCTYPE, doctype.toString().strip(), NO_ATTRS));
+            pos = end + 1;
+            return;
+        }
+
+        if (next == '/') {
+            pos += 2;
+            String name = readName();
+            tokens.add(new HtmlToken(HtmlToken.Kind.CLOSE, name, NO_ATTRS));
+            pos = indexOrEnd('>', pos) + 1;
+            return;
+        }
+
+        pos++;
+        String name = readName();
+        String[] attrs = readAttributes();
+        tokens.add(new HtmlToken(HtmlToken.Kind.OPEN, name, attrs));
+        if (!pattern && (name.equals("script") || name.equals("style"))) {
+            readRawText(name);
+        }
+    }
+
+    private String[] readAttributes() {
+        List<String> attrs = null;
+        int n = html.length();
+        while (pos < n) {
+            skipWhitespace();
+            if (pos >= n) {
+                break;
+            }
+            char c = html.charAt(pos);
+            if (c == '>') {
+                pos++;
+                break;
+            }
+            if (c == '/' || c == '"' || c == '\'' || c == '=') {
+                pos++;
+                continue;
+            }
+
+            int start = pos;
+            while (pos < n && !isAttributeEnd(html.charAt(pos))) {
+                pos++;
+            }
+            String name = html.substring(start, pos).toLowerCase();
+            String value = null;
+            if (!pattern) {
+                skipWhitespace();
+            }
+            if (pos < n && html.charAt(pos) == '=') {
+                pos++;
+                if (!pattern) {
+                    skipWhitespace();
+                }
+                value = readValue();
+            }
+
+            if (attrs == null) {
+                attrs = new ArrayList<>(4);
+            }
+            attrs.add(name);
+            attrs.add(value);
+        }
+        return attrs == null ? NO_ATTRS : attrs.toArray(NO_ATTRS);
+    }
+
+    /**
+     * Returns null for a pattern attribute with nothing after the '='.
+     */
+    private String readValue() {
+        int n = html.length();
+        if (pos >= n) {
+            return pattern ? null : "";
+        }
+
+        char quote = html.charAt(pos);
+        int start;
+        int end;
+        if (quote == '"' || quote == '\'') {
+            start = pos + 1;
+            end = indexOrEnd(quote, start);
+            pos = Math.min(end + 1, n);
+        } else {
+            start = pos;
+            while (pos < n && !Character.isWhitespace(html.charAt(pos)) && html.charAt(pos) != '>') {
+                pos++;
+            }
+            end = pos;
+            if (pattern && start == end) {
+                return null;
+            }
+        }
+        return html.substring(start, end).strip().toLowerCase();
+    }
+
+    private void readRawText(String name) {
+        int n = html.length();
+        int end = pos;
+        while (end < n && !(html.startsWith("</", end) && html.regionMatches(true, end + 2, name, 0, name.length()))) {
+            end++;
+        }
+        for (int i = pos; i < end; i++) {
+            appendNormalized(text, html.charAt(i));
+        }
+        flushText();
+        pos = end;
+    }
+
+    private String readName() {
+        int start = pos;
+        int n = html.length();
+        while (pos < n && isNameChar(html.charAt(pos))) {
+            pos++;
+        }
+        return html.substring(start, pos).toLowerCase();
+    }
+
+    private void flushText() {
+        int length = text.length();
+        if (length > 0 && text.charAt(length - 1) == ' ') {
+            text.setLength(length - 1);
+        }
+        if (!text.isEmpty()) {
+            tokens.add(new HtmlToken(HtmlToken.Kind.TEXT, text.toString(), NO_ATTRS));
+            text.setLength(0);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < html.length() && Character.isWhitespace(html.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private int indexOrEnd(char c, int from) {
+        int index = html.indexOf(c, from);
+        return index < 0 ? html.length() : index;
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isNameChar(char c) {
+        return isNameStart(c) || (c >= '0' && c <= '9') || c == '-' || c == ':';
+    }
+
+    private static boolean isAttributeEnd(char c) {
+        return Character.isWhitespace(c) || c == '=' || c == '>' || c == '/';
+    }
+}
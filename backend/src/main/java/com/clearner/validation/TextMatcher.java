@@ -0,0 +1,55 @@
+package com.clearner.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches answers that are not markup, such as CSS or JavaScript, as
+ * text with whitespace collapsed and case ignored. Gaps split the pattern
+ * into pieces that must appear in order.
+ */
+final class TextMatcher implements AnswerMatcher {
+
+    private final String[] pieces;
+
+    TextMatcher(String prepared) {
+        List<String> split = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < prepared.length(); i++) {
+            char c = prepared.charAt(i);
+            if (c == HtmlTokenizer.GAP_MARK) {
+                addPiece(split, current);
+            } else {
+                HtmlTokenizer.appendNormalized(current, c);
+            }
+        }
+        addPiece(split, current);
+        this.pieces = split.toArray(new String[0]);
+    }
+
+    @Override
+    public CheckResult check(String code) {
+        StringBuilder normalized = new StringBuilder(code.length());
+        for (int i = 0; i < code.length(); i++) {
+            HtmlTokenizer.appendNormalized(normalized, code.charAt(i));
+        }
+
+        int pos = 0;
+        for (String piece : pieces) {
+            int found = normalized.indexOf(piece, pos);
+            if (found < 0) {
+                return CheckResult.fail("Expected " + piece);
+            }
+            pos = found + piece.length();
+        }
+        return CheckResult.PASS;
+    }
+
+    private static void addPiece(List<String> pieces, StringBuilder current) {
+        String piece = current.toString().strip();
+        if (!piece.isEmpty()) {
+            pieces.add(piece);
+        }
+        current.setLength(0);
+    }
+}
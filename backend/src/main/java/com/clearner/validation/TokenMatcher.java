@@ -0,0 +1,70 @@
+package com.clearner.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches submitted HTML against a tokenized pattern.
+ * The pattern is split at its gaps into segments of tokens that must
+ * appear back to back; segments must appear in order. Taking the earliest
+ * occurrence of each segment is enough, so a check is one forward scan
+ * with no backtracking across segments.
+ */
+final class TokenMatcher implements AnswerMatcher {
+
+    private final HtmlToken[][] segments;
+
+    TokenMatcher(List<HtmlToken> pattern) {
+        List<HtmlToken[]> split = new ArrayList<>();
+        List<HtmlToken> current = new ArrayList<>();
+        for (HtmlToken token : pattern) {
+            if (token.kind == HtmlToken.Kind.GAP) {
+                if (!current.isEmpty()) {
+                    split.add(current.toArray(new HtmlToken[0]));
+                    current.clear();
+                }
+            } else {
+                current.add(token);
+            }
+        }
+        if (!current.isEmpty()) {
+            split.add(current.toArray(new HtmlToken[0]));
+        }
+        this.segments = split.toArray(new HtmlToken[0][]);
+    }
+
+    @Override
+    public CheckResult check(String code) {
+        List<HtmlToken> tokens = HtmlTokenizer.tokenize(code);
+        int pos = 0;
+        HtmlToken previous = null;
+        for (HtmlToken[] segment : segments) {
+            int found = -1;
+            int best = 0;
+            for (int start = pos; start < tokens.size(); start++) {
+                int matched = 0;
+                while (matched < segment.length && start + matched < tokens.size()
+                        && segment[matched].accepts(tokens.get(start + matched))) {
+                    matched++;
+                }
+                if (matched == segment.length) {
+                    found = start;
+                    break;
+                }
+                best = Math.max(best, matched);
+            }
+
+            if (found < 0) {
+                if (best > 0) {
+                    return CheckResult.fail("Expected " + segment[best] + " right after " + segment[best - 1]);
+                }
+                return CheckResult.fail(previous != null
+                        ? "Expected " + segment[0] + " after " + previous
+                        : "Expected " + segment[0]);
+            }
+            pos = found + segment.length;
+            previous = segment[segment.length - 1];
+        }
+        return CheckResult.PASS;
+    }
+}
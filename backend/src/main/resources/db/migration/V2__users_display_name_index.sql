@@ -0,0 +1,10 @@
+-- Login looks users up by display name. Older databases can hold duplicate
+-- names; login always resolved to the oldest row, so the newer duplicates
+-- get a suffix before the unique index is built.
+
+UPDATE users
+SET display_name = display_name || ' (' || substr(id, 1, 8) || ')',
+    sync_status = 'DIRTY'
+WHERE rowid NOT IN (SELECT MIN(rowid) FROM users GROUP BY display_name);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_users_display_name ON users(display_name);
@@ -0,0 +1,14 @@
+-- Rollup of lesson_step_events per (lesson, step, event type), maintained
+-- incrementally by AnalyticsService. learner_sketch is a HyperLogLog of
+-- user ids; the last folded event id is kept in app_meta.
+
+CREATE TABLE IF NOT EXISTS lesson_step_stats (
+  lesson_id TEXT NOT NULL,
+  step_index INTEGER NOT NULL,
+  event_type TEXT NOT NULL,
+  event_count INTEGER NOT NULL DEFAULT 0,
+  learner_sketch BLOB NOT NULL,
+  first_event_at INTEGER NOT NULL,
+  last_event_at INTEGER NOT NULL,
+  PRIMARY KEY (lesson_id, step_index, event_type)
+);
@@ -0,0 +1,8 @@
+-- Widen the (user_id, lesson_id) index with created_at so an imported event
+-- can be matched against existing ones without scanning the learner's
+-- history. Queries on the (user_id, lesson_id) prefix still use it.
+
+DROP INDEX IF EXISTS idx_step_events_user_lesson;
+
+CREATE INDEX IF NOT EXISTS idx_step_events_user_lesson_time
+ON lesson_step_events(user_id, lesson_id, created_at);
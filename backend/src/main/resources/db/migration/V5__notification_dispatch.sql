@@ -0,0 +1,14 @@
+-- Columns used by NotificationService. attempts counts failed sends and
+-- next_attempt_at is when a failed row may be claimed again; dedupe_key
+-- lets a trigger enqueue the same notification more than once and still
+-- get a single row. Claims look rows up by status and provider.
+
+ALTER TABLE external_notifications ADD COLUMN attempts INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE external_notifications ADD COLUMN next_attempt_at INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE external_notifications ADD COLUMN dedupe_key TEXT;
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_notifications_dedupe
+ON external_notifications(dedupe_key) WHERE dedupe_key IS NOT NULL;
+
+DROP INDEX IF EXISTS idx_notifications_status;
+CREATE INDEX IF NOT EXISTS idx_notifications_claim ON external_notifications(status, provider);
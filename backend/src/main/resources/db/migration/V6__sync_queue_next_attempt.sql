@@ -0,0 +1,5 @@
+-- When a queued sync operation may be pushed again. Failed pushes back off
+-- from the last failure rather than from created_at, so entries from a long
+-- outage do not run out of retries in quick succession.
+
+ALTER TABLE sync_queue ADD COLUMN next_attempt_at INTEGER NOT NULL DEFAULT 0;
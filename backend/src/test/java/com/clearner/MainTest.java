@@ -0,0 +1,40 @@
+package com.clearner;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MainTest {
+
+    @Test
+    void acceptsGzipWhenListed() {
+        assertTrue(Main.acceptsGzip("gzip"));
+        assertTrue(Main.acceptsGzip("gzip, deflate, br"));
+        assertTrue(Main.acceptsGzip("br;q=1.0, GZIP;q=0.5"));
+        assertTrue(Main.acceptsGzip("x-gzip"));
+    }
+
+    @Test
+    void refusesGzipWithZeroQuality() {
+        assertFalse(Main.acceptsGzip("gzip;q=0"));
+        assertFalse(Main.acceptsGzip("gzip; q=0.000, identity"));
+        assertFalse(Main.acceptsGzip("gzip;q=0, *"));
+        assertFalse(Main.acceptsGzip("gzip;q=abc"));
+    }
+
+    @Test
+    void wildcardCoversUnlistedGzip() {
+        assertTrue(Main.acceptsGzip("*"));
+        assertTrue(Main.acceptsGzip("identity, *;q=0.1"));
+        assertFalse(Main.acceptsGzip("*;q=0"));
+    }
+
+    @Test
+    void missingOrOtherEncodingsMeanIdentity() {
+        assertFalse(Main.acceptsGzip(null));
+        assertFalse(Main.acceptsGzip(""));
+        assertFalse(Main.acceptsGzip("identity"));
+        assertFalse(Main.acceptsGzip("br, deflate"));
+    }
+}
@@ -0,0 +1,104 @@
+package com.clearner.integrations;
+
+import com.clearner.Json;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process HTTP stand-in for the remote sync service.
+ * Keeps the latest record per (entity type, key) and applies the same
+ * last-writer-wins rule as the real remote, so HttpRemoteSyncClient and the
+ * sync engine can be exercised without network access.
+ */
+public class LocalSyncServer implements AutoCloseable {
+
+    private static final TypeReference<List<RemoteSyncClient.SyncRecord>> RECORDS = new TypeReference<>() {};
+
+    private final HttpServer server;
+    private final ObjectMapper mapper = Json.MAPPER;
+    private final Map<String, RemoteSyncClient.SyncRecord> records = new ConcurrentHashMap<>();
+    private volatile boolean failing;
+
+    public LocalSyncServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/sync/", this::handle);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Make every push fail with HTTP 503, to exercise retries.
+     */
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    /**
+     * Store a record directly, as if another device had synced it.
+     */
+    public void put(String entityType, RemoteSyncClient.SyncRecord record) {
+        records.put(entityType + "/" + record.key(), record);
+    }
+
+    public RemoteSyncClient.SyncRecord get(String entityType, String key) {
+        return records.get(entityType + "/" + key);
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (failing) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String entityType = exchange.getRequestURI().getPath().substring("/sync/".length());
+            List<RemoteSyncClient.SyncRecord> incoming;
+            try (InputStream in = exchange.getRequestBody()) {
+                incoming = mapper.readValue(in, RECORDS);
+            }
+
+            List<RemoteSyncClient.SyncRecord> newer = new ArrayList<>();
+            for (RemoteSyncClient.SyncRecord record : incoming) {
+                String id = entityType + "/" + record.key();
+                RemoteSyncClient.SyncRecord existing = records.get(id);
+                if (existing != null && existing.updatedAt() > record.updatedAt()) {
+                    newer.add(existing);
+                } else if ("DELETE".equals(record.operation())) {
+                    records.remove(id);
+                } else {
+                    records.put(id, record);
+                }
+            }
+
+            byte[] body = mapper.writeValueAsBytes(new RemoteSyncClient.PushResult(newer));
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
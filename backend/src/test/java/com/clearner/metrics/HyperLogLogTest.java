@@ -0,0 +1,75 @@
+package com.clearner.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    @Test
+    void emptySketchEstimatesZero() {
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    void smallCountsAreExactEnough() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 50; i++) {
+            sketch.add("user-" + i);
+            sketch.add("user-" + i);
+        }
+        assertEquals(50, sketch.estimate(), 2);
+    }
+
+    @Test
+    void largeCountsStayWithinErrorBound() {
+        for (int n : new int[] {1_000, 10_000, 200_000}) {
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < n; i++) {
+                sketch.add("learner-" + i);
+            }
+            // Standard error is about 3.25% with 1024 registers; allow three of them
+            double error = Math.abs(sketch.estimate() - n) / (double) n;
+            assertTrue(error < 0.10, n + " distinct values estimated as " + sketch.estimate());
+        }
+    }
+
+    @Test
+    void mergeCountsOverlapOnce() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        HyperLogLog both = new HyperLogLog();
+        for (int i = 0; i < 6_000; i++) {
+            String value = "u" + i;
+            if (i < 4_000) {
+                a.add(value);
+            }
+            if (i >= 2_000) {
+                b.add(value);
+            }
+            both.add(value);
+        }
+        a.merge(b);
+        // Register-wise max gives exactly the sketch of the union
+        assertArrayEquals(both.toBytes(), a.toBytes());
+    }
+
+    @Test
+    void bytesRoundTrip() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 500; i++) {
+            sketch.add(Integer.toString(i));
+        }
+        HyperLogLog restored = HyperLogLog.fromBytes(sketch.toBytes());
+        assertEquals(sketch.estimate(), restored.estimate());
+        assertArrayEquals(sketch.toBytes(), restored.toBytes());
+    }
+
+    @Test
+    void malformedBytesGiveEmptySketch() {
+        assertEquals(0, HyperLogLog.fromBytes(null).estimate());
+        assertEquals(0, HyperLogLog.fromBytes(new byte[3]).estimate());
+    }
+}
@@ -0,0 +1,141 @@
+package com.clearner.services;
+
+import com.clearner.models.StepEvent;
+import com.clearner.models.StepEventType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventIngestServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private DatabaseService db;
+
+    @BeforeEach
+    void setUp() {
+        db = new DatabaseService(dir.resolve("test.db").toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.close();
+    }
+
+    @Test
+    void writesEveryQueuedEventOnClose() throws Exception {
+        EventIngestService ingest = new EventIngestService(db, 1000, 1000);
+        // More than one multi-row INSERT, with a partial one at the end
+        assertTrue(ingest.submit(events(250)));
+        ingest.close();
+
+        assertEquals(250, count());
+        EventIngestService.Stats stats = ingest.getStats();
+        assertEquals(250, stats.accepted());
+        assertEquals(250, stats.written());
+        assertEquals(0, stats.queued());
+    }
+
+    @Test
+    void rejectsWholeBatchWhenItDoesNotFit() throws Exception {
+        renameEventsTable(true);
+        try (EventIngestService ingest = new EventIngestService(db, 10, 1000)) {
+            assertTrue(ingest.submit(events(8)));
+            // The failing batch keeps its room in the queue while it is retried
+            assertFalse(ingest.submit(events(3)));
+            assertTrue(ingest.submit(events(2)));
+            assertFalse(ingest.reserve(1));
+
+            EventIngestService.Stats stats = ingest.getStats();
+            assertEquals(10, stats.accepted());
+            assertEquals(4, stats.rejected());
+            assertEquals(10, stats.queued());
+            renameEventsTable(false);
+        }
+        assertEquals(10, count());
+    }
+
+    @Test
+    void releaseGivesBackReservedRoom() {
+        try (EventIngestService ingest = new EventIngestService(db, 5, 1000)) {
+            assertTrue(ingest.reserve(5));
+            assertFalse(ingest.reserve(1));
+            ingest.release(5);
+            assertTrue(ingest.reserve(5));
+            ingest.release(5);
+        }
+    }
+
+    @Test
+    void failedBatchIsRetriedUntilItIsWritten() throws Exception {
+        renameEventsTable(true);
+        try (EventIngestService ingest = new EventIngestService(db, 100, 100)) {
+            assertTrue(ingest.submit(events(5)));
+            Thread.sleep(300);
+            assertEquals(0, ingest.getStats().written());
+
+            renameEventsTable(false);
+            await(() -> ingest.getStats().written() == 5);
+            assertEquals(0, ingest.getStats().failed());
+            assertEquals(0, ingest.getStats().queued());
+        }
+        assertEquals(5, count());
+    }
+
+    @Test
+    void batchIsDroppedAfterMaxAttempts() throws Exception {
+        renameEventsTable(true);
+        try (EventIngestService ingest = new EventIngestService(db, 100, 100)) {
+            assertTrue(ingest.submit(events(5)));
+            await(() -> ingest.getStats().failed() == 5);
+            assertEquals(0, ingest.getStats().written());
+            assertEquals(0, ingest.getStats().queued());
+            assertTrue(ingest.submit(events(100)));
+            renameEventsTable(false);
+        }
+        assertEquals(100, count());
+    }
+
+    private static List<StepEvent> events(int count) {
+        List<StepEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(new StepEvent("u" + (i % 7), "html/lesson-1-structure", i % 20, StepEventType.PASTE, 1000 + i));
+        }
+        return events;
+    }
+
+    private void renameEventsTable(boolean away) throws Exception {
+        String sql = away ? "ALTER TABLE lesson_step_events RENAME TO lesson_step_events_moved"
+                : "ALTER TABLE lesson_step_events_moved RENAME TO lesson_step_events";
+        db.write(conn -> conn.prepare(sql).executeUpdate());
+    }
+
+    private long count() throws Exception {
+        return db.read(conn -> {
+            try (ResultSet rs = conn.prepare("SELECT COUNT(*) FROM lesson_step_events").executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.clearner.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LessonCacheTest {
+
+    private static final byte[] JSON = "{\"id\":\"lesson\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void gzipCopyInflatesToTheJson() throws IOException {
+        LessonCache.Entry entry = LessonCache.Entry.of(JSON);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(entry.gzip()))) {
+            assertArrayEquals(JSON, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void eachEncodingHasItsOwnStrongEtag() {
+        LessonCache.Entry entry = LessonCache.Entry.of(JSON);
+        String identity = entry.etag(false);
+        String gzip = entry.etag(true);
+        assertTrue(identity.startsWith("\"") && identity.endsWith("\""));
+        assertTrue(gzip.startsWith("\"") && gzip.endsWith("-gz\""));
+        assertNotEquals(identity, gzip);
+        assertEquals(identity, LessonCache.Entry.of(JSON.clone()).etag(false));
+        assertNotEquals(identity, LessonCache.Entry.of("{}".getBytes(StandardCharsets.UTF_8)).etag(false));
+    }
+
+    @Test
+    void ifNoneMatchComparesTheSelectedEncoding() {
+        LessonCache.Entry entry = LessonCache.Entry.of(JSON);
+        String identity = entry.etag(false);
+        String gzip = entry.etag(true);
+
+        assertTrue(entry.matches(identity, false));
+        assertTrue(entry.matches(gzip, true));
+        assertFalse(entry.matches(gzip, false));
+        assertFalse(entry.matches(identity, true));
+        assertTrue(entry.matches("\"other\", W/" + gzip, true));
+        assertTrue(entry.matches("*", false));
+        assertFalse(entry.matches(null, false));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        LessonCache cache = new LessonCache(2);
+        cache.get("a", k -> LessonCache.Entry.of(JSON));
+        cache.get("b", k -> LessonCache.Entry.of(JSON));
+        cache.get("a", k -> null);
+        cache.get("c", k -> LessonCache.Entry.of(JSON));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b", k -> null));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void missingLessonIsNotCached() {
+        LessonCache cache = new LessonCache(4);
+        assertNull(cache.get("a", k -> null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void concurrentMissesLoadOnce() throws Exception {
+        LessonCache cache = new LessonCache(4);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] results = new Future<?>[8];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = pool.submit(() -> {
+                    start.await();
+                    return cache.get("a", k -> {
+                        loads.incrementAndGet();
+                        sleep(50);
+                        return LessonCache.Entry.of(JSON);
+                    });
+                });
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                assertSame(results[0].get(), result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void reloadDuringSlowMissIsKept() throws Exception {
+        LessonCache cache = new LessonCache(4);
+        LessonCache.Entry stale = LessonCache.Entry.of("{\"v\":1}".getBytes(StandardCharsets.UTF_8));
+        LessonCache.Entry reloaded = LessonCache.Entry.of("{\"v\":2}".getBytes(StandardCharsets.UTF_8));
+
+        LessonCache.Entry result = raceSlowMiss(cache, stale, () -> cache.put("a", reloaded));
+
+        assertSame(reloaded, result);
+        assertSame(reloaded, cache.get("a", k -> stale));
+    }
+
+    @Test
+    void deleteDuringSlowMissIsNotUndone() throws Exception {
+        LessonCache cache = new LessonCache(4);
+
+        raceSlowMiss(cache, LessonCache.Entry.of(JSON), () -> cache.invalidate("a"));
+
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Start a miss on "a" whose loader returns loaded, run change while it is
+     * loading and let the loader finish once change is waiting on it.
+     */
+    private static LessonCache.Entry raceSlowMiss(LessonCache cache, LessonCache.Entry loaded, Runnable change)
+            throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<LessonCache.Entry> miss = pool.submit(() -> cache.get("a", k -> {
+                loading.countDown();
+                await(release);
+                return loaded;
+            }));
+            loading.await();
+            // put and invalidate wait for the in-flight load after recording the change
+            Thread changer = new Thread(change);
+            changer.start();
+            while (changer.getState() != Thread.State.BLOCKED && changer.isAlive()) {
+                Thread.onSpinWait();
+            }
+            release.countDown();
+            changer.join();
+            return miss.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
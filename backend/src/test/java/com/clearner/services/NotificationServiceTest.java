@@ -0,0 +1,202 @@
+package com.clearner.services;
+
+import com.clearner.integrations.FileNotificationProvider;
+import com.clearner.integrations.NotificationProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NotificationServiceTest {
+
+    private static final long BREAKER_OPEN_MS = 200;
+
+    @TempDir
+    Path dir;
+
+    private DatabaseService db;
+    private NotificationService notifications;
+    private FileNotificationProvider provider;
+    private Path out;
+
+    @BeforeEach
+    void setUp() {
+        db = new DatabaseService(dir.resolve("test.db").toString());
+        out = dir.resolve("notifications.ndjson");
+        provider = new FileNotificationProvider("file", out);
+        notifications = new NotificationService(db, 1000, BREAKER_OPEN_MS);
+        notifications.register(provider, 10_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        notifications.close();
+        db.close();
+    }
+
+    @Test
+    void claimedRowsAreSentAndMarked() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            notifications.enqueue("file", Map.of("n", i), null);
+        }
+        notifications.dispatchNow();
+
+        assertEquals(List.of("SENT", "SENT", "SENT"), query("SELECT status FROM external_notifications ORDER BY id"));
+        assertEquals(List.of("0"), query("SELECT COUNT(*) FROM external_notifications WHERE sent_at IS NULL"));
+        assertEquals(3, Files.readAllLines(out).size());
+        assertEquals(3, notifications.getStats().sent());
+    }
+
+    @Test
+    void duplicateDedupeKeyIsStoredOnce() throws Exception {
+        notifications.enqueue("file", Map.of("n", 1), "key");
+        notifications.dispatchNow();
+        notifications.enqueue("file", Map.of("n", 2), "key");
+        notifications.dispatchNow();
+
+        assertEquals(List.of("1"), query("SELECT COUNT(*) FROM external_notifications"));
+        assertEquals(1, Files.readAllLines(out).size());
+    }
+
+    @Test
+    void failedSendBacksOffThenSucceeds() throws Exception {
+        provider.setFailing(true);
+        notifications.enqueue("file", Map.of("n", 1), null);
+        long before = System.currentTimeMillis();
+        notifications.dispatchNow();
+
+        assertEquals(List.of("PENDING|1"), query("SELECT status || '|' || attempts FROM external_notifications"));
+        long nextAttempt = Long.parseLong(query("SELECT next_attempt_at FROM external_notifications").get(0));
+        assertTrue(nextAttempt >= before + 5000, "next attempt measured from the failure: " + nextAttempt);
+
+        execute("UPDATE external_notifications SET next_attempt_at = 0");
+        before = System.currentTimeMillis();
+        notifications.dispatchNow();
+        nextAttempt = Long.parseLong(query("SELECT next_attempt_at FROM external_notifications").get(0));
+        assertTrue(nextAttempt >= before + 10_000, "backoff doubles per attempt: " + nextAttempt);
+
+        // Not due yet, so it is not claimed even though the provider is back
+        provider.setFailing(false);
+        notifications.dispatchNow();
+        assertEquals(List.of("PENDING|2"), query("SELECT status || '|' || attempts FROM external_notifications"));
+
+        execute("UPDATE external_notifications SET next_attempt_at = 0");
+        notifications.dispatchNow();
+        assertEquals(List.of("SENT|2"), query("SELECT status || '|' || attempts FROM external_notifications"));
+    }
+
+    @Test
+    void rowIsFailedAfterMaxAttempts() throws Exception {
+        provider.setFailing(true);
+        notifications.enqueue("file", Map.of("n", 1), null);
+        notifications.dispatchNow();
+        execute("UPDATE external_notifications SET attempts = 9, next_attempt_at = 0");
+        notifications.dispatchNow();
+
+        assertEquals(List.of("FAILED|10"), query("SELECT status || '|' || attempts FROM external_notifications"));
+        assertEquals(2, notifications.getStats().failed());
+    }
+
+    @Test
+    void openBreakerStopsClaimsAndHalfOpenLetsOneBatchThrough() throws Exception {
+        provider.setFailing(true);
+        notifications.enqueue("file", Map.of("n", "trip"), null);
+        for (int i = 0; i < 5; i++) {
+            notifications.dispatchNow();
+            execute("UPDATE external_notifications SET next_attempt_at = 0");
+        }
+        assertEquals("OPEN", circuit());
+
+        for (int i = 0; i < 600; i++) {
+            notifications.enqueue("file", Map.of("n", i), null);
+        }
+        notifications.dispatchNow();
+        assertEquals(List.of("601"), query("SELECT COUNT(*) FROM external_notifications WHERE status = 'PENDING'"));
+        assertEquals(List.of("5"), query("SELECT MAX(attempts) FROM external_notifications"));
+
+        // A failed probe claims a single batch and re-opens straight away
+        Thread.sleep(BREAKER_OPEN_MS + 50);
+        assertEquals("HALF_OPEN", circuit());
+        notifications.dispatchNow();
+        assertEquals(List.of("500"), query("SELECT COUNT(*) FROM external_notifications WHERE attempts > 0"));
+        assertEquals("OPEN", circuit());
+
+        Thread.sleep(BREAKER_OPEN_MS + 50);
+        provider.setFailing(false);
+        execute("UPDATE external_notifications SET next_attempt_at = 0");
+        notifications.dispatchNow();
+        assertEquals(List.of("500"), query("SELECT COUNT(*) FROM external_notifications WHERE status = 'SENT'"));
+        assertEquals("CLOSED", circuit());
+
+        notifications.dispatchNow();
+        assertEquals(List.of("601"), query("SELECT COUNT(*) FROM external_notifications WHERE status = 'SENT'"));
+    }
+
+    @Test
+    void claimedRowsAreReleasedWhenTheOutcomeCannotBeRecorded() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        NotificationProvider moving = new NotificationProvider() {
+            @Override
+            public String name() {
+                return "moving";
+            }
+
+            @Override
+            public void send(List<NotificationProvider.Notification> batch) {
+                // The first send takes the table away, so recording its outcome fails
+                if (calls.incrementAndGet() == 1) {
+                    try {
+                        execute("ALTER TABLE external_notifications RENAME TO external_notifications_moved");
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        };
+        notifications.register(moving, 10_000);
+        notifications.enqueue("moving", Map.of("n", 1), null);
+
+        assertThrows(ExecutionException.class, notifications::dispatchNow);
+        execute("ALTER TABLE external_notifications_moved RENAME TO external_notifications");
+        assertEquals(List.of("SENDING"), query("SELECT status FROM external_notifications"));
+
+        // The next pass releases the row before claiming, so it is sent again
+        notifications.dispatchNow();
+        assertEquals(List.of("SENT"), query("SELECT status FROM external_notifications"));
+        assertEquals(2, calls.get());
+    }
+
+    private String circuit() {
+        return notifications.getStats().providers().get("file").circuit();
+    }
+
+    private void execute(String sql) throws SQLException {
+        db.write(conn -> conn.prepare(sql).executeUpdate());
+    }
+
+    private List<String> query(String sql) throws SQLException {
+        return db.read(conn -> {
+            List<String> rows = new ArrayList<>();
+            try (ResultSet rs = conn.prepare(sql).executeQuery()) {
+                while (rs.next()) {
+                    rows.add(rs.getString(1));
+                }
+            }
+            return rows;
+        });
+    }
+}
@@ -0,0 +1,152 @@
+package com.clearner.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProgressBufferTest {
+
+    private static final long NEVER = 3_600_000;
+
+    @TempDir
+    Path dir;
+
+    private DatabaseService db;
+
+    @BeforeEach
+    void setUp() {
+        db = new DatabaseService(dir.resolve("test.db").toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.close();
+    }
+
+    @Test
+    void coalescesUpdatesPerLesson() throws Exception {
+        try (ProgressBuffer buffer = new ProgressBuffer(db, 100, NEVER)) {
+            buffer.add(new ProgressBuffer.Update("u1", "l1", 1, false, 100));
+            buffer.add(new ProgressBuffer.Update("u1", "l1", 2, false, 200));
+            buffer.add(new ProgressBuffer.Update("u1", "l1", 3, true, 300));
+            buffer.add(new ProgressBuffer.Update("u1", "l2", 5, false, 300));
+            buffer.add(new ProgressBuffer.Update("u2", "l1", 7, false, 300));
+
+            assertEquals(List.of(new ProgressBuffer.Update("u1", "l1", 3, true, 300),
+                    new ProgressBuffer.Update("u1", "l2", 5, false, 300)),
+                    sorted(buffer.pendingFor("u1")));
+            assertEquals(List.of(), rows());
+
+            buffer.flush();
+            assertEquals(List.of("u1/l1/3/1/300", "u1/l2/5/0/300", "u2/l1/7/0/300"), rows());
+            assertEquals(List.of(), buffer.pendingFor("u1"));
+
+            ProgressBuffer.Stats stats = buffer.getStats();
+            assertEquals(5, stats.received());
+            assertEquals(3, stats.flushedRows());
+            assertEquals(1, stats.flushes());
+            assertEquals(5 / 3.0, stats.coalescingRatio(), 1e-9);
+        }
+    }
+
+    @Test
+    void flushUpdatesExistingRowAndMarksItDirty() throws Exception {
+        try (ProgressBuffer buffer = new ProgressBuffer(db, 100, NEVER)) {
+            buffer.add(new ProgressBuffer.Update("u1", "l1", 1, false, 100));
+            buffer.flush();
+            db.write(conn -> conn.prepare("UPDATE lessons_progress SET sync_status = 'SYNCED'").executeUpdate());
+
+            buffer.add(new ProgressBuffer.Update("u1", "l1", 4, false, 400));
+            buffer.flush();
+        }
+        assertEquals(List.of("u1/l1/4/0/400"), rows());
+        assertEquals("DIRTY", db.read(conn -> {
+            try (ResultSet rs = conn.prepare("SELECT sync_status FROM lessons_progress").executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }));
+    }
+
+    @Test
+    void fullBufferFlushesWithoutWaitingForTheInterval() throws Exception {
+        try (ProgressBuffer buffer = new ProgressBuffer(db, 3, NEVER)) {
+            for (int i = 0; i < 3; i++) {
+                buffer.add(new ProgressBuffer.Update("u" + i, "l1", 1, false, 100));
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (buffer.getStats().flushes() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, buffer.getStats().flushes());
+            assertEquals(3, rows().size());
+        }
+    }
+
+    @Test
+    void intervalFlushesPartialBuffer() throws Exception {
+        try (ProgressBuffer buffer = new ProgressBuffer(db, 100, 20)) {
+            buffer.add(new ProgressBuffer.Update("u1", "l1", 1, false, 100));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (rows().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of("u1/l1/1/0/100"), rows());
+        }
+    }
+
+    @Test
+    void closeWritesWhatIsPending() throws Exception {
+        ProgressBuffer buffer = new ProgressBuffer(db, 100, NEVER);
+        buffer.add(new ProgressBuffer.Update("u1", "l1", 2, false, 100));
+        buffer.close();
+        assertEquals(List.of("u1/l1/2/0/100"), rows());
+    }
+
+    @Test
+    void failedFlushKeepsUpdatesForTheNextOne() throws Exception {
+        try (ProgressBuffer buffer = new ProgressBuffer(db, 100, NEVER)) {
+            buffer.add(new ProgressBuffer.Update("u1", "l1", 2, false, 100));
+            db.write(conn -> conn.prepare("ALTER TABLE lessons_progress RENAME TO lessons_progress_moved")
+                    .executeUpdate());
+            buffer.flush();
+            assertEquals(1, buffer.pendingFor("u1").size());
+            assertEquals(0, buffer.getStats().flushes());
+
+            db.write(conn -> conn.prepare("ALTER TABLE lessons_progress_moved RENAME TO lessons_progress")
+                    .executeUpdate());
+            buffer.flush();
+            assertTrue(buffer.pendingFor("u1").isEmpty());
+        }
+        assertEquals(List.of("u1/l1/2/0/100"), rows());
+    }
+
+    private static List<ProgressBuffer.Update> sorted(List<ProgressBuffer.Update> updates) {
+        List<ProgressBuffer.Update> copy = new ArrayList<>(updates);
+        copy.sort((a, b) -> a.lessonId().compareTo(b.lessonId()));
+        return copy;
+    }
+
+    private List<String> rows() throws Exception {
+        return db.read(conn -> {
+            List<String> rows = new ArrayList<>();
+            try (ResultSet rs = conn.prepare("SELECT user_id, lesson_id, current_step, completed, updated_at " +
+                    "FROM lessons_progress ORDER BY user_id, lesson_id").executeQuery()) {
+                while (rs.next()) {
+                    rows.add(rs.getString(1) + "/" + rs.getString(2) + "/" + rs.getInt(3) + "/" + rs.getInt(4) +
+                            "/" + rs.getLong(5));
+                }
+            }
+            return rows;
+        });
+    }
+}
@@ -0,0 +1,181 @@
+package com.clearner.services;
+
+import com.clearner.Json;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RetentionServiceTest {
+
+    private static final long OLD = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(100);
+    private static final long RECENT = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+
+    @TempDir
+    Path dir;
+
+    private ShardedStorage storage;
+    private RetentionService retention;
+    private Path archive;
+
+    @BeforeEach
+    void setUp() {
+        storage = new ShardedStorage(dir.resolve("clearner.db").toString(), dir.resolve("shards"), 2);
+        archive = dir.resolve("archive");
+        retention = new RetentionService(storage, 90, archive, TimeUnit.HOURS.toMillis(1), false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        retention.close();
+        storage.close();
+    }
+
+    @Test
+    void archivesAndDeletesOnlyOldSyncedEvents() throws Exception {
+        DatabaseService shard0 = storage.shards().get(0);
+        DatabaseService shard1 = storage.shards().get(1);
+        // More than one chunk on shard 0
+        insertEvents(shard0, 1200, "SYNCED", OLD);
+        insertEvents(shard0, 5, "DIRTY", OLD);
+        insertEvents(shard0, 5, "SYNCED", RECENT);
+        insertEvents(shard1, 10, "SYNCED", OLD);
+
+        retention.runOnce();
+
+        assertEquals(List.of("DIRTY|5", "SYNCED|5"), query(shard0, "SELECT sync_status || '|' || COUNT(*) " +
+                "FROM lesson_step_events GROUP BY sync_status ORDER BY sync_status"));
+        assertEquals(List.of("0"), query(shard1, "SELECT COUNT(*) FROM lesson_step_events"));
+
+        List<Path> segments = segments("lesson_step_events");
+        assertEquals(3, segments.size());
+        List<JsonNode> archived = new ArrayList<>();
+        for (Path segment : segments) {
+            archived.addAll(read(segment));
+        }
+        assertEquals(1210, archived.size());
+        for (JsonNode row : archived) {
+            assertEquals("SYNCED", row.path("sync_status").asText());
+            assertEquals(OLD, row.path("created_at").asLong());
+        }
+        // Segment names carry the id range, and shard ids do not overlap
+        Path first = segments.get(0);
+        assertEquals(String.format("lesson_step_events-%012d-%012d.ndjson.gz", (1L << 40) + 1, (1L << 40) + 1000),
+                first.getFileName().toString());
+
+        RetentionService.Stats stats = retention.getStats();
+        assertEquals(1210, stats.archivedRows());
+        assertEquals(1210, stats.deletedRows());
+        assertEquals(3, stats.segments());
+        assertEquals(1, stats.runs());
+    }
+
+    @Test
+    void archivesFinishedNotifications() throws Exception {
+        DatabaseService directory = storage.directory();
+        execute(directory, "INSERT INTO external_notifications (provider, message, status, created_at) VALUES " +
+                "('file', 'a', 'SENT', " + OLD + "), ('file', 'b', 'FAILED', " + OLD + "), " +
+                "('file', 'c', 'PENDING', " + OLD + "), ('file', 'd', 'SENT', " + RECENT + ")");
+
+        retention.runOnce();
+
+        assertEquals(List.of("c", "d"), query(directory, "SELECT message FROM external_notifications ORDER BY id"));
+        List<Path> segments = segments("external_notifications");
+        assertEquals(1, segments.size());
+        assertEquals(List.of("a", "b"), read(segments.get(0)).stream().map(n -> n.path("message").asText()).toList());
+    }
+
+    @Test
+    void secondRunHasNothingLeftToArchive() throws Exception {
+        insertEvents(storage.shards().get(0), 20, "SYNCED", OLD);
+        retention.runOnce();
+        retention.runOnce();
+
+        assertEquals(20, retention.getStats().archivedRows());
+        assertEquals(1, segments("lesson_step_events").size());
+        assertEquals(2, retention.getStats().runs());
+    }
+
+    @Test
+    void smallFilesSwitchToIncrementalVacuum() throws Exception {
+        retention.runOnce();
+        for (DatabaseService db : storage.all()) {
+            // Asked on the writer; the read-only connections keep the header they opened with
+            long autoVacuum = db.write(conn -> {
+                try (ResultSet rs = conn.prepare("PRAGMA auto_vacuum").executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : -1;
+                }
+            });
+            assertEquals(2, autoVacuum);
+        }
+    }
+
+    private static void insertEvents(DatabaseService db, int count, String status, long createdAt)
+            throws SQLException {
+        db.transaction(conn -> {
+            PreparedStatement pstmt = conn.prepare("INSERT INTO lesson_step_events " +
+                    "(user_id, lesson_id, step_index, event_type, created_at, sync_status) " +
+                    "VALUES ('u', 'html/a', ?, 'RUN', ?, ?)");
+            for (int i = 0; i < count; i++) {
+                pstmt.setInt(1, i);
+                pstmt.setLong(2, createdAt);
+                pstmt.setString(3, status);
+                pstmt.addBatch();
+            }
+            return pstmt.executeBatch();
+        });
+    }
+
+    private List<Path> segments(String table) throws IOException {
+        Path tableDir = archive.resolve(table);
+        if (!Files.isDirectory(tableDir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(tableDir)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static List<JsonNode> read(Path segment) throws IOException {
+        List<JsonNode> rows = new ArrayList<>();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(segment))) {
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                rows.add(Json.MAPPER.readTree(line));
+            }
+        }
+        return rows;
+    }
+
+    private static void execute(DatabaseService db, String sql) throws SQLException {
+        db.write(conn -> conn.prepare(sql).executeUpdate());
+    }
+
+    private static List<String> query(DatabaseService db, String sql) throws SQLException {
+        return db.read(conn -> {
+            List<String> rows = new ArrayList<>();
+            try (ResultSet rs = conn.prepare(sql).executeQuery()) {
+                while (rs.next()) {
+                    rows.add(rs.getString(1));
+                }
+            }
+            return rows;
+        });
+    }
+}
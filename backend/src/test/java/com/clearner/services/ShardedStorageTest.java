@@ -0,0 +1,117 @@
+package com.clearner.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedStorageTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void singleFileKeepsEverythingInTheDirectory() {
+        try (ShardedStorage storage = open(1)) {
+            assertFalse(storage.isSharded());
+            assertEquals(List.of(storage.directory()), storage.shards());
+            assertEquals(List.of(storage.directory()), storage.all());
+            assertSame(storage.directory(), storage.forUser("anyone"));
+        }
+    }
+
+    @Test
+    void usersAreSpreadOverShardsStably() {
+        int[] perShard = new int[4];
+        int[] first = new int[1000];
+        try (ShardedStorage storage = open(4)) {
+            assertTrue(storage.isSharded());
+            assertEquals(4, storage.shards().size());
+            assertEquals(5, storage.all().size());
+            assertSame(storage.directory(), storage.all().get(0));
+            for (int i = 0; i < first.length; i++) {
+                String userId = "user-" + i;
+                first[i] = storage.shardOf(userId);
+                perShard[first[i]]++;
+                assertSame(storage.shards().get(first[i]), storage.forUser(userId));
+            }
+        }
+        for (int count : perShard) {
+            assertTrue(count > 150, "uneven spread " + Arrays.toString(perShard));
+        }
+        try (ShardedStorage storage = open(4)) {
+            for (int i = 0; i < first.length; i++) {
+                assertEquals(first[i], storage.shardOf("user-" + i));
+            }
+        }
+    }
+
+    @Test
+    void eventIdsDoNotOverlapAcrossShards() throws Exception {
+        try (ShardedStorage storage = open(3)) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(((long) (i + 1) << 40) + 1, insertEvent(storage.shards().get(i)));
+            }
+        }
+        // Reopening must not reseed shards that already have events
+        try (ShardedStorage storage = open(3)) {
+            assertEquals((1L << 40) + 2, insertEvent(storage.shards().get(0)));
+        }
+    }
+
+    @Test
+    void shardCountCannotChange() {
+        open(4).close();
+        assertThrows(IllegalStateException.class, () -> open(2));
+        assertThrows(IllegalStateException.class, () -> open(1));
+        open(4).close();
+    }
+
+    @Test
+    void refusesToShardExistingLearnerData() throws Exception {
+        try (ShardedStorage storage = open(1)) {
+            insertEvent(storage.directory());
+        }
+        IllegalStateException error = assertThrows(IllegalStateException.class, () -> open(2));
+        assertTrue(error.getMessage().contains("export"), error.getMessage());
+        open(1).close();
+    }
+
+    @Test
+    void failedShardOpenCanBeRetried() throws Exception {
+        Path blocked = Files.createDirectories(dir.resolve("shards").resolve("shard-1.db"));
+        assertThrows(RuntimeException.class, () -> open(3));
+
+        Files.delete(blocked);
+        try (ShardedStorage storage = open(3)) {
+            assertEquals(3, storage.shards().size());
+        }
+    }
+
+    private ShardedStorage open(int shards) {
+        return new ShardedStorage(dir.resolve("clearner.db").toString(), dir.resolve("shards"), shards);
+    }
+
+    private static long insertEvent(DatabaseService db) throws Exception {
+        return db.write(conn -> {
+            PreparedStatement pstmt = conn.prepare("INSERT INTO lesson_step_events " +
+                    "(user_id, lesson_id, step_index, event_type, created_at) VALUES ('u', 'l', 0, 'RUN', 1)");
+            pstmt.executeUpdate();
+            try (ResultSet rs = conn.prepare("SELECT last_insert_rowid()").executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+    }
+}
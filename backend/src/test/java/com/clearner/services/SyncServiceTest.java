@@ -0,0 +1,158 @@
+package com.clearner.services;
+
+import com.clearner.integrations.HttpRemoteSyncClient;
+import com.clearner.integrations.LocalSyncServer;
+import com.clearner.integrations.RemoteSyncClient.SyncRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Last-writer-wins merge between a local database and LocalSyncServer.
+ */
+class SyncServiceTest {
+
+    private static final String PROGRESS_KEY = "u1/html/lesson-1-structure";
+
+    @TempDir
+    Path dir;
+
+    private LocalSyncServer server;
+    private ShardedStorage storage;
+    private SyncService sync;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new LocalSyncServer();
+        storage = new ShardedStorage(new DatabaseService(dir.resolve("test.db").toString()));
+        sync = new SyncService(storage, new HttpRemoteSyncClient(server.getUrl()), 60_000);
+        storage.directory().write(conn -> {
+            PreparedStatement pstmt = conn.prepare("INSERT INTO users (id, display_name, created_at, last_active_at) " +
+                    "VALUES ('u1', 'Ann', 1000, 1000)");
+            return pstmt.executeUpdate();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        sync.close();
+        storage.close();
+        server.close();
+    }
+
+    @Test
+    void localChangesArePushedAndMarkedSynced() throws Exception {
+        saveProgress(3, 2000);
+        sync.syncNow();
+
+        SyncRecord pushed = server.get("lessons_progress", PROGRESS_KEY);
+        assertEquals(2000, pushed.updatedAt());
+        assertEquals(3, ((Number) pushed.data().get("current_step")).intValue());
+        assertEquals("SYNCED", progress().get("sync_status"));
+    }
+
+    @Test
+    void newerRemoteCopyOverwritesLocalRow() throws Exception {
+        saveProgress(3, 2000);
+        server.put("lessons_progress", new SyncRecord(PROGRESS_KEY, "UPSERT", 5000, Map.of(
+                "user_id", "u1", "lesson_id", "html/lesson-1-structure",
+                "current_step", 9, "completed", 1, "updated_at", 5000)));
+        sync.syncNow();
+
+        Map<String, Object> row = progress();
+        assertEquals(9, ((Number) row.get("current_step")).intValue());
+        assertEquals(5000L, ((Number) row.get("updated_at")).longValue());
+        assertEquals("SYNCED", row.get("sync_status"));
+        assertEquals(5000, server.get("lessons_progress", PROGRESS_KEY).updatedAt());
+    }
+
+    @Test
+    void newerLocalRowReplacesOlderRemoteCopy() throws Exception {
+        server.put("lessons_progress", new SyncRecord(PROGRESS_KEY, "UPSERT", 1500, Map.of(
+                "user_id", "u1", "lesson_id", "html/lesson-1-structure",
+                "current_step", 1, "completed", 0, "updated_at", 1500)));
+        saveProgress(4, 2000);
+        sync.syncNow();
+
+        SyncRecord remote = server.get("lessons_progress", PROGRESS_KEY);
+        assertEquals(2000, remote.updatedAt());
+        assertEquals(4, ((Number) remote.data().get("current_step")).intValue());
+        assertEquals(4, ((Number) progress().get("current_step")).intValue());
+    }
+
+    @Test
+    void failedQueuePushBacksOffFromTheFailure() throws Exception {
+        sync.syncNow();
+        storage.directory().write(conn -> {
+            PreparedStatement pstmt = conn.prepare("INSERT INTO sync_queue " +
+                    "(entity_type, entity_id, operation, payload, created_at) " +
+                    "VALUES ('notes', 'n1', 'UPSERT', '{}', 1)");
+            return pstmt.executeUpdate();
+        });
+
+        server.setFailing(true);
+        long before = System.currentTimeMillis();
+        assertThrows(ExecutionException.class, sync::syncNow);
+        long[] queued = queued();
+        assertEquals(1, queued[0]);
+        assertTrue(queued[1] >= before + 1000, "next attempt measured from created_at: " + queued[1]);
+
+        // Not due yet, so the next pass leaves it alone even though the remote is back
+        server.setFailing(false);
+        sync.syncNow();
+        assertNull(server.get("notes", "n1"));
+        assertEquals(1, queued()[0]);
+
+        storage.directory().write(conn -> conn.prepare("UPDATE sync_queue SET next_attempt_at = 0").executeUpdate());
+        sync.syncNow();
+        assertNotNull(server.get("notes", "n1"));
+        assertNull(queued());
+    }
+
+    private void saveProgress(int step, long updatedAt) throws Exception {
+        storage.forUser("u1").write(conn -> {
+            PreparedStatement pstmt = conn.prepare("INSERT INTO lessons_progress " +
+                    "(user_id, lesson_id, current_step, completed, updated_at) " +
+                    "VALUES ('u1', 'html/lesson-1-structure', ?, 0, ?)");
+            pstmt.setInt(1, step);
+            pstmt.setLong(2, updatedAt);
+            return pstmt.executeUpdate();
+        });
+    }
+
+    private Map<String, Object> progress() throws Exception {
+        return storage.forUser("u1").read(conn -> {
+            PreparedStatement pstmt = conn.prepare(
+                    "SELECT current_step, updated_at, sync_status FROM lessons_progress WHERE user_id = 'u1'");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return Map.of("current_step", rs.getObject(1), "updated_at", rs.getObject(2),
+                        "sync_status", rs.getString(3));
+            }
+        });
+    }
+
+    /**
+     * retry_count and next_attempt_at of the only queued op, or null if the queue is empty.
+     */
+    private long[] queued() throws Exception {
+        return storage.directory().read(conn -> {
+            try (ResultSet rs = conn.prepare("SELECT retry_count, next_attempt_at FROM sync_queue").executeQuery()) {
+                return rs.next() ? new long[] {rs.getLong(1), rs.getLong(2)} : null;
+            }
+        });
+    }
+}
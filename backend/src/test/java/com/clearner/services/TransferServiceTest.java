@@ -0,0 +1,168 @@
+package com.clearner.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private ShardedStorage source;
+    private ShardedStorage target;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        source = new ShardedStorage(dir.resolve("source.db").toString(), dir.resolve("source-shards"), 1);
+        target = new ShardedStorage(dir.resolve("target.db").toString(), dir.resolve("target-shards"), 3);
+
+        execute(source.directory(), "INSERT INTO users (id, display_name, created_at, last_active_at, sync_status) " +
+                "VALUES ('u1', 'Ann', 100, 150, 'SYNCED'), ('u2', 'Bob', 200, 250, 'DIRTY')");
+        execute(source.directory(), "INSERT INTO lessons_progress " +
+                "(user_id, lesson_id, current_step, completed, updated_at, sync_status) " +
+                "VALUES ('u1', 'html/a', 3, 0, 300, 'SYNCED'), ('u2', 'html/a', 9, 1, 400, 'DIRTY')");
+        execute(source.directory(), "INSERT INTO user_preferences (user_id, key, value, updated_at, sync_status) " +
+                "VALUES ('u1', 'theme', 'dark', 300, 'SYNCED')");
+        execute(source.directory(), "INSERT INTO lesson_step_events " +
+                "(user_id, lesson_id, step_index, event_type, created_at, sync_status) " +
+                "VALUES ('u1', 'html/a', 1, 'RUN', 500, 'SYNCED'), ('u1', 'html/a', 2, 'RUN', 501, 'SYNCED'), " +
+                "('u2', 'html/a', 1, 'PASTE', 502, 'DIRTY')");
+    }
+
+    @AfterEach
+    void tearDown() {
+        source.close();
+        target.close();
+    }
+
+    @Test
+    void exportStartsWithHeaderAndWritesUsersFirst() throws Exception {
+        List<String> lines = new String(gunzip(export(source)), StandardCharsets.UTF_8).lines().toList();
+        assertTrue(lines.get(0).contains("\"format\":\"" + TransferService.FORMAT + "\""), lines.get(0));
+        assertEquals(1 + 2 + 2 + 1 + 3, lines.size());
+        assertTrue(lines.get(1).startsWith("{\"table\":\"users\""), lines.get(1));
+        assertTrue(lines.get(2).startsWith("{\"table\":\"users\""), lines.get(2));
+    }
+
+    @Test
+    void roundTripIntoShardsMarksEverythingDirty() throws Exception {
+        List<String> notified = new ArrayList<>();
+        TransferService transfer = new TransferService(target);
+        transfer.addUserListener(notified::add);
+
+        TransferService.ImportResult result = transfer.importFrom(new ByteArrayInputStream(export(source)));
+        assertEquals(2, result.users());
+        assertEquals(2, result.progress());
+        assertEquals(1, result.preferences());
+        assertEquals(3, result.events());
+        assertEquals(0, result.skipped());
+        assertEquals(List.of("u1", "u2"), notified);
+
+        assertEquals(List.of("u1|Ann|DIRTY", "u2|Bob|DIRTY"), query(target.directory(),
+                "SELECT id || '|' || display_name || '|' || sync_status FROM users ORDER BY id"));
+        assertEquals(List.of("html/a|3|0|300|DIRTY"), query(target.forUser("u1"),
+                "SELECT lesson_id || '|' || current_step || '|' || completed || '|' || updated_at || '|' || " +
+                "sync_status FROM lessons_progress WHERE user_id = 'u1'"));
+        assertEquals(List.of("theme|dark|DIRTY"), query(target.forUser("u1"),
+                "SELECT key || '|' || value || '|' || sync_status FROM user_preferences WHERE user_id = 'u1'"));
+        assertEquals(List.of("1|RUN|DIRTY", "2|RUN|DIRTY"), query(target.forUser("u1"),
+                "SELECT step_index || '|' || event_type || '|' || sync_status FROM lesson_step_events " +
+                "WHERE user_id = 'u1' ORDER BY created_at"));
+        assertEquals(List.of("9|1"), query(target.forUser("u2"),
+                "SELECT current_step || '|' || completed FROM lessons_progress WHERE user_id = 'u2'"));
+    }
+
+    @Test
+    void importingTwiceChangesNothing() throws Exception {
+        byte[] file = export(source);
+        TransferService transfer = new TransferService(target);
+        transfer.importFrom(new ByteArrayInputStream(file));
+
+        TransferService.ImportResult again = transfer.importFrom(new ByteArrayInputStream(file));
+        assertEquals(0, again.progress());
+        assertEquals(0, again.preferences());
+        assertEquals(0, again.events());
+        assertEquals(List.of("2"), query(target.forUser("u1"),
+                "SELECT COUNT(*) FROM lesson_step_events WHERE user_id = 'u1'"));
+    }
+
+    @Test
+    void onlyNewerProgressOverwrites() throws Exception {
+        execute(target.directory(), "INSERT INTO users (id, display_name, created_at) VALUES ('u1', 'Ann', 100)");
+        execute(target.forUser("u1"), "INSERT INTO lessons_progress " +
+                "(user_id, lesson_id, current_step, completed, updated_at, sync_status) " +
+                "VALUES ('u1', 'html/a', 7, 0, 900, 'SYNCED')");
+
+        new TransferService(target).importFrom(new ByteArrayInputStream(export(source)));
+
+        assertEquals(List.of("7|900|SYNCED"), query(target.forUser("u1"),
+                "SELECT current_step || '|' || updated_at || '|' || sync_status FROM lessons_progress"));
+    }
+
+    @Test
+    void existingDisplayNameMergesIntoThatLearner() throws Exception {
+        execute(target.directory(), "INSERT INTO users (id, display_name, created_at) VALUES ('local', 'Ann', 50)");
+
+        TransferService.ImportResult result =
+                new TransferService(target).importFrom(new ByteArrayInputStream(export(source)));
+
+        assertEquals(1, result.remappedUsers());
+        assertEquals(List.of("local", "u2"), query(target.directory(), "SELECT id FROM users ORDER BY id"));
+        assertEquals(List.of("3"), query(target.forUser("local"),
+                "SELECT current_step FROM lessons_progress WHERE user_id = 'local'"));
+        assertEquals(List.of("2"), query(target.forUser("local"),
+                "SELECT COUNT(*) FROM lesson_step_events WHERE user_id = 'local'"));
+    }
+
+    @Test
+    void rejectsOtherFormats() {
+        byte[] file = "{\"format\":\"something-else\",\"version\":1}\n".getBytes(StandardCharsets.UTF_8);
+        assertThrows(IOException.class,
+                () -> new TransferService(target).importFrom(new ByteArrayInputStream(file)));
+    }
+
+    private static byte[] export(ShardedStorage storage) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new TransferService(storage).export(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void execute(DatabaseService db, String sql) throws SQLException {
+        db.write(conn -> conn.prepare(sql).executeUpdate());
+    }
+
+    private static List<String> query(DatabaseService db, String sql) throws SQLException {
+        return db.read(conn -> {
+            List<String> rows = new ArrayList<>();
+            try (ResultSet rs = conn.prepare(sql).executeQuery()) {
+                while (rs.next()) {
+                    rows.add(rs.getString(1));
+                }
+            }
+            return rows;
+        });
+    }
+}
@@ -0,0 +1,152 @@
+package com.clearner.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MigrationsTest {
+
+    @TempDir
+    Path dir;
+
+    private Database database;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new Database(dir.resolve("test.db").toString(), 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    @Test
+    void freshDatabaseGetsEveryVersionOnce() throws Exception {
+        assertEquals(Migrations.latestVersion(), Migrations.migrate(database));
+        assertEquals(0, Migrations.migrate(database));
+
+        List<String> versions = query("SELECT version FROM schema_migrations ORDER BY version");
+        assertEquals(Migrations.latestVersion(), versions.size());
+        for (int i = 0; i < versions.size(); i++) {
+            assertEquals(String.valueOf(i + 1), versions.get(i));
+        }
+    }
+
+    @Test
+    void upgradeFromBaselineKeepsData() throws Exception {
+        applyBaseline();
+        execute("INSERT INTO users (id, display_name, created_at, sync_status) VALUES " +
+                "('aaaaaaaa-1', 'Ann', 1, 'SYNCED'), ('bbbbbbbb-2', 'Ann', 2, 'SYNCED'), " +
+                "('cccccccc-3', 'Bob', 3, 'SYNCED')");
+        execute("INSERT INTO external_notifications (provider, message, status, created_at) " +
+                "VALUES ('file', '{}', 'PENDING', 5)");
+        execute("INSERT INTO sync_queue (entity_type, entity_id, operation, payload, created_at) " +
+                "VALUES ('users', 'aaaaaaaa-1', 'UPSERT', '{}', 5)");
+
+        assertEquals(Migrations.latestVersion() - 1, Migrations.migrate(database));
+
+        // V2: the newer duplicate is renamed and queued for sync, then names are unique
+        assertEquals(List.of("aaaaaaaa-1|Ann|SYNCED", "bbbbbbbb-2|Ann (bbbbbbbb)|DIRTY", "cccccccc-3|Bob|SYNCED"),
+                query("SELECT id || '|' || display_name || '|' || sync_status FROM users ORDER BY id"));
+        assertThrows(SQLException.class,
+                () -> execute("INSERT INTO users (id, display_name, created_at) VALUES ('d', 'Bob', 4)"));
+
+        // V3
+        assertEquals(List.of("0"), query("SELECT COUNT(*) FROM lesson_step_stats"));
+
+        // V4
+        assertEquals(List.of("idx_step_events_user_lesson_time"), query(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'lesson_step_events' " +
+                "AND name LIKE 'idx_step_events_user_lesson%'"));
+
+        // V5: existing notifications are claimable straight away
+        assertEquals(List.of("0|0|null"), query("SELECT attempts || '|' || next_attempt_at || '|' || " +
+                "COALESCE(dedupe_key, 'null') FROM external_notifications"));
+        execute("INSERT INTO external_notifications (provider, message, status, created_at, dedupe_key) " +
+                "VALUES ('file', '{}', 'PENDING', 6, 'k')");
+        assertThrows(SQLException.class, () -> execute("INSERT INTO external_notifications " +
+                "(provider, message, status, created_at, dedupe_key) VALUES ('file', '{}', 'PENDING', 7, 'k')"));
+
+        // V6: queued operations are due straight away
+        assertEquals(List.of("0"), query("SELECT next_attempt_at FROM sync_queue"));
+    }
+
+    @Test
+    void failingScriptRollsBackTheWholeUpgrade() throws Exception {
+        applyBaseline();
+        // V5 adds this column, so it fails after V2 to V4 have run
+        execute("ALTER TABLE external_notifications ADD COLUMN attempts INTEGER");
+
+        SQLException error = assertThrows(SQLException.class, () -> Migrations.migrate(database));
+        assertTrue(error.getMessage().contains("V5__notification_dispatch.sql"), error.getMessage());
+        assertEquals(List.of("1"), query("SELECT MAX(version) FROM schema_migrations"));
+        assertEquals(List.of(), query("SELECT name FROM sqlite_master " +
+                "WHERE name IN ('idx_users_display_name', 'lesson_step_stats', 'idx_step_events_user_lesson_time')"));
+    }
+
+    @Test
+    void splitsScriptsIntoStatements() {
+        List<String> statements = Migrations.statements("""
+                -- comment
+                CREATE TABLE t (a INTEGER);
+
+                CREATE TRIGGER t_insert AFTER INSERT ON t
+                BEGIN
+                  UPDATE t SET a = a + 1;
+                END;
+                INSERT INTO t
+                VALUES (1);
+                """);
+        assertEquals(3, statements.size());
+        assertEquals("CREATE TABLE t (a INTEGER);", statements.get(0));
+        assertTrue(statements.get(1).startsWith("CREATE TRIGGER") && statements.get(1).endsWith("END;"));
+        assertEquals("INSERT INTO t\nVALUES (1);", statements.get(2));
+    }
+
+    private void applyBaseline() throws Exception {
+        String script;
+        try (InputStream in = Migrations.class.getResourceAsStream("/db/migration/V1__baseline.sql")) {
+            script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        for (String sql : Migrations.statements(script)) {
+            execute(sql);
+        }
+        execute("CREATE TABLE schema_migrations (version INTEGER PRIMARY KEY, applied_at INTEGER NOT NULL)");
+        execute("INSERT INTO schema_migrations (version, applied_at) VALUES (1, 0)");
+    }
+
+    private void execute(String sql) throws SQLException {
+        database.write(conn -> {
+            try (Statement stmt = conn.raw().createStatement()) {
+                return stmt.executeUpdate(sql);
+            }
+        });
+    }
+
+    private List<String> query(String sql) throws SQLException {
+        return database.read(conn -> {
+            List<String> rows = new ArrayList<>();
+            try (Statement stmt = conn.raw().createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    rows.add(rs.getString(1));
+                }
+            }
+            return rows;
+        });
+    }
+}
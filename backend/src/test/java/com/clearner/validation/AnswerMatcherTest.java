@@ -0,0 +1,117 @@
+package com.clearner.validation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnswerMatcherTest {
+
+    @Test
+    void ignoresCaseWhitespaceAndComments() {
+        AnswerMatcher matcher = AnswerMatcher.compile("<p>Hello world</p>");
+        assertTrue(matcher.check("<P>\n  hello   WORLD\n</P>").passed());
+        assertTrue(matcher.check("<!-- greeting --><p>Hello <!-- x -->world</p>").passed());
+    }
+
+    @Test
+    void gapsMatchAnythingInOrder() {
+        AnswerMatcher matcher = AnswerMatcher.compile("<ul>.*<li>.*</li>.*</ul>");
+        assertTrue(matcher.check("<ul><li>one</li></ul>").passed());
+        assertTrue(matcher.check("<div><ul>\n<li><b>one</b></li>\n<li>two</li></ul></div>").passed());
+        assertFalse(matcher.check("<li>one</li><ul></ul>").passed());
+    }
+
+    @Test
+    void regexGroupGapIsTheSameAsPlainGap() {
+        AnswerMatcher matcher = AnswerMatcher.compile("<title>(.*)</title>");
+        assertTrue(matcher.check("<title>Anything</title>").passed());
+        assertTrue(matcher.check("<title></title>").passed());
+    }
+
+    @Test
+    void adjacentTokensMustBeBackToBack() {
+        AnswerMatcher matcher = AnswerMatcher.compile("<p><strong>");
+        assertTrue(matcher.check("<p><strong>x</strong></p>").passed());
+        assertFalse(matcher.check("<p>x<strong>y</strong></p>").passed());
+    }
+
+    @Test
+    void extraAttributesAreAccepted() {
+        AnswerMatcher matcher = AnswerMatcher.compile("<a href=\"about.html\">.*</a>");
+        assertTrue(matcher.check("<a class=\"nav\" href=\"about.html\" target=_blank>About</a>").passed());
+        assertTrue(matcher.check("<a href='about.html'>About</a>").passed());
+        assertFalse(matcher.check("<a href=\"contact.html\">About</a>").passed());
+        assertFalse(matcher.check("<a>About</a>").passed());
+    }
+
+    @Test
+    void attributeWithoutValueAcceptsAnyValue() {
+        AnswerMatcher matcher = AnswerMatcher.compile("<img.*src=.*alt=.*>");
+        assertTrue(matcher.check("<img src=\"cat.png\" alt=\"A cat\">").passed());
+        assertTrue(matcher.check("<img alt=\"\" width=10 src=x.png />").passed());
+        assertFalse(matcher.check("<img src=\"cat.png\">").passed());
+    }
+
+    @Test
+    void escapedCharactersAreLiteral() {
+        AnswerMatcher matcher = AnswerMatcher.compile("<p>1 \\+ 1</p>");
+        assertTrue(matcher.check("<p>1 + 1</p>").passed());
+    }
+
+    @Test
+    void doctypeIgnoresCase() {
+        AnswerMatcher matcher = AnswerMatcher.compile("<!DOCTYPE html>");
+        assertTrue(matcher.check("<!doctype HTML>").passed());
+        assertFalse(matcher.check("<html></html>").passed());
+    }
+
+    @Test
+    void failureHintNamesTheMissingTag() {
+        AnswerMatcher matcher = AnswerMatcher.compile("<ul>.*<li>.*<a href=\"about.html\">.*</a>");
+        CheckResult missing = matcher.check("<ul><li>About</li></ul>");
+        assertFalse(missing.passed());
+        assertEquals("Expected <a href=\"about.html\"> after <li>", missing.hint());
+
+        CheckResult broken = AnswerMatcher.compile("<p><strong>").check("<p>x</p>");
+        assertEquals("Expected <strong> right after <p>", broken.hint());
+
+        assertEquals("Expected <ul>", matcher.check("").hint());
+    }
+
+    @Test
+    void patternsWithoutTagsCompareText() {
+        AnswerMatcher matcher = AnswerMatcher.compile("color: red;.*font-size: 2em;");
+        assertTrue(matcher.check("p {\n  COLOR:   red;\n  margin: 0;\n  font-size: 2em;\n}").passed());
+        CheckResult result = matcher.check("p { font-size: 2em; color: red; }");
+        assertFalse(result.passed());
+        assertEquals("Expected font-size: 2em;", result.hint());
+    }
+
+    @Test
+    void tokenizerDropsCommentsAndBlankText() {
+        List<HtmlToken> tokens = HtmlTokenizer.tokenize("<DIV class=a>\n  <!-- c -->\n  Hi  there </div>");
+        assertEquals(3, tokens.size());
+        assertEquals(HtmlToken.Kind.OPEN, tokens.get(0).kind);
+        assertEquals("div", tokens.get(0).value);
+        assertEquals(HtmlToken.Kind.TEXT, tokens.get(1).kind);
+        assertEquals("hi there", tokens.get(1).value);
+        assertEquals(HtmlToken.Kind.CLOSE, tokens.get(2).kind);
+    }
+
+    @Test
+    void tokenizerKeepsLoneAngleBracketsAsText() {
+        List<HtmlToken> tokens = HtmlTokenizer.tokenize("<p>a < b</p>");
+        assertEquals(3, tokens.size());
+        assertEquals("a < b", tokens.get(1).value);
+    }
+
+    @Test
+    void tokenizerSurvivesUnterminatedMarkup() {
+        assertFalse(AnswerMatcher.compile("<p>.*</p>").check("<p>text <a href=\"x").passed());
+        assertFalse(AnswerMatcher.compile("<p>").check("<!-- never closed <p>").passed());
+    }
+}
@@ -0,0 +1,129 @@
+package com.clearner.validation;
+
+import com.clearner.Json;
+import com.clearner.models.LessonSummary;
+import com.clearner.services.ContentService;
+import com.clearner.services.LessonCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs every task.expected in the bundled lessons against a passing and a
+ * failing answer. A new task without an entry in ANSWERS fails the build.
+ */
+class LessonTasksTest {
+
+    private record Answers(String passing, String failing) {}
+
+    private static final Map<String, Answers> ANSWERS = Map.of(
+        "html/lesson-1-structure/step-3", new Answers(
+                "<!doctype HTML>",
+                "<html></html>"),
+        "html/lesson-1-structure/step-7", new Answers(
+                """
+                <!DOCTYPE html>
+                <html>
+                  <head>
+                    <title>My first page</title>
+                  </head>
+                  <body></body>
+                </html>
+                """,
+                """
+                <!DOCTYPE html>
+                <html>
+                  <head></head>
+                  <body><title>Wrong place</title></body>
+                </html>
+                """),
+        "html/lesson-1-structure/step-11", new Answers(
+                "<body><h1>Hello</h1><p>One</p><!-- note --><p>Two</p></body>",
+                "<body><h1>Hello</h1><p>Only one paragraph</p></body>"),
+        "html/lesson-1-structure/step-17", new Answers(
+                "<h1>Title</h1><h2>Sub</h2><p>Some <strong>bold</strong> text</p><hr><em>slanted</em><br>",
+                "<h1>Title</h1><h2>Sub</h2><p>Some <strong>bold</strong> text</p><em>slanted</em><br>"),
+        "html/lesson-2-lists_links_images/step-4", new Answers(
+                "<ul><li>a</li><li>b</li><li>c</li></ul>\n<ol><li>1</li><li>2</li><li>3</li></ol>",
+                "<ul><li>a</li><li>b</li><li>c</li></ul>\n<ul><li>1</li><li>2</li><li>3</li></ul>"),
+        "html/lesson-2-lists_links_images/step-10", new Answers(
+                """
+                <ul>
+                  <li><a class="nav" href="home.html">Home</a></li>
+                  <li><A HREF="about.html">About</A></li>
+                  <li><a href='contact.html'>Contact</a></li>
+                </ul>
+                """,
+                """
+                <ul>
+                  <li><a href="home.html">Home</a></li>
+                  <li><a href="about.htm">About</a></li>
+                  <li><a href="contact.html">Contact</a></li>
+                </ul>
+                """),
+        "html/lesson-2-lists_links_images/step-17", new Answers(
+                "<h1>Me</h1><p>Hi</p><img src=\"me.png\" alt=\"Me\"><ul><li>x</li></ul><a href=\"x.html\">x</a>",
+                "<h1>Me</h1><p>Hi</p><img src=\"me.png\"><ul><li>x</li></ul><a href=\"x.html\">x</a>"),
+        "html/lesson-3-tables_forms/step-4", new Answers(
+                "<table><tr><th>Name</th></tr><tr><td>Ann</td></tr><tr><td>Bob</td></tr></table>",
+                "<table><tr><th>Name</th></tr><tr><td>Ann</td></tr></table>")
+    );
+
+    @TestFactory
+    List<DynamicTest> everyTaskAcceptsPassingAndRejectsFailingAnswer() throws IOException {
+        List<DynamicTest> tests = new ArrayList<>();
+        for (Task task : tasks()) {
+            tests.add(DynamicTest.dynamicTest(task.key(), () -> {
+                Answers answers = ANSWERS.get(task.key());
+                assertNotNull(answers, "No answers for " + task.key() + ", add them to ANSWERS");
+                AnswerMatcher matcher = AnswerMatcher.compile(task.expected());
+
+                CheckResult pass = matcher.check(answers.passing());
+                assertTrue(pass.passed(), task.key() + " rejected the passing answer: " + pass.hint());
+                CheckResult fail = matcher.check(answers.failing());
+                assertFalse(fail.passed(), task.key() + " accepted the failing answer");
+                assertNotNull(fail.hint(), task.key() + " failed without a hint");
+            }));
+        }
+        return tests;
+    }
+
+    @Test
+    void everyAnswerBelongsToATask() throws IOException {
+        List<String> keys = new ArrayList<>();
+        for (Task task : tasks()) {
+            keys.add(task.key());
+        }
+        for (String key : ANSWERS.keySet()) {
+            assertTrue(keys.contains(key), key + " has no task.expected any more");
+        }
+    }
+
+    private record Task(String key, String expected) {}
+
+    private static List<Task> tasks() throws IOException {
+        ContentService content = new ContentService();
+        List<Task> tasks = new ArrayList<>();
+        for (LessonSummary summary : content.getIndex().getLessons()) {
+            LessonCache.Entry entry = content.getCachedLesson(summary.course(), summary.slug());
+            for (JsonNode step : Json.MAPPER.readTree(entry.json()).path("steps")) {
+                JsonNode expected = step.path("task").path("expected");
+                if (expected.isTextual()) {
+                    tasks.add(new Task(summary.course() + "/" + summary.slug() + "/" + step.path("id").asText(),
+                            expected.asText()));
+                }
+            }
+        }
+        return tasks;
+    }
+}
@@ -0,0 +1,52 @@
+package com.clearner.benchmarks;
+
+import com.clearner.services.ContentService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lesson lookup on the bundled HTML lessons, served from the cache and
+ * with the cache disabled so every call parses the YAML.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentServiceBenchmark {
+
+    @Param({"lesson-1-structure", "lesson-2-lists_links_images", "lesson-3-tables_forms"})
+    public String lessonId;
+
+    private ContentService cached;
+    private ContentService uncached;
+
+    @Setup
+    public void setup() {
+        cached = new ContentService();
+        uncached = new ContentService(0);
+        cached.getLesson("html", lessonId);
+    }
+
+    @Benchmark
+    public String getLessonCached() {
+        return cached.getLesson("html", lessonId);
+    }
+
+    @Benchmark
+    public String getLessonParse() {
+        return uncached.getLesson("html", lessonId);
+    }
+}
@@ -0,0 +1,95 @@
+package com.clearner.benchmarks;
+
+import com.clearner.Json;
+import com.clearner.models.LoginRequest;
+import com.clearner.models.ProgressRequest;
+import com.clearner.models.User;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JSON work done by the Main handlers: parsing request bodies and
+ * writing the login and progress responses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    private static final String LOGIN_BODY = "{\"displayName\":\"learner-42\"}";
+    private static final String PROGRESS_BODY =
+            "{\"userId\":\"6f1c2f7e-8a53-4f6d-9b1e-3f0a4c2d9e11\",\"lessonId\":\"html/lesson-1-structure\",\"currentStep\":7,\"completed\":false}";
+
+    private final ObjectMapper shared = new ObjectMapper();
+    private final User user = new User("6f1c2f7e-8a53-4f6d-9b1e-3f0a4c2d9e11", "learner-42", 1700000000000L, 1700000000000L, "DIRTY");
+    private final List<Map<String, Object>> progress = progressList(20);
+
+    @Benchmark
+    public String loginPerRequestMapper() throws Exception {
+        // What the login handler did before it used Json.MAPPER: a new ObjectMapper for every request
+        JsonNode node = new ObjectMapper().readTree(LOGIN_BODY);
+        return node.get("displayName").asText();
+    }
+
+    @Benchmark
+    public String loginSharedMapper() throws Exception {
+        JsonNode node = shared.readTree(LOGIN_BODY);
+        return node.get("displayName").asText();
+    }
+
+    @Benchmark
+    public String loginTyped() throws Exception {
+        return Json.MAPPER.readValue(LOGIN_BODY, LoginRequest.class).displayName();
+    }
+
+    @Benchmark
+    public int parseProgress() throws Exception {
+        JsonNode node = shared.readTree(PROGRESS_BODY);
+        return node.get("currentStep").asInt();
+    }
+
+    @Benchmark
+    public int parseProgressTyped() throws Exception {
+        return Json.MAPPER.readValue(PROGRESS_BODY, ProgressRequest.class).currentStep();
+    }
+
+    @Benchmark
+    public String writeUser() throws Exception {
+        return shared.writeValueAsString(user);
+    }
+
+    @Benchmark
+    public String writeProgressList() throws Exception {
+        return shared.writeValueAsString(progress);
+    }
+
+    private static List<Map<String, Object>> progressList(int size) {
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("lessonId", "lesson-" + i);
+            item.put("currentStep", i);
+            item.put("completed", i % 3 == 0);
+            items.add(item);
+        }
+        return items;
+    }
+}
@@ -0,0 +1,84 @@
+package com.clearner.benchmarks;
+
+import com.clearner.services.PersistenceService;
+import com.clearner.services.ProgressBuffer;
+import com.clearner.services.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress save and load against a temp-file SQLite database.
+ * bufferProgress only measures what a request pays now that saves go to the
+ * write-behind buffer; saveProgressFlushed adds the write to SQLite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceServiceBenchmark {
+
+    private static final int LESSONS = 20;
+
+    private TempDatabase database;
+    private PersistenceService persistence;
+    private ProgressBuffer buffer;
+    private String userId;
+    private int step;
+
+    @Setup
+    public void setup() {
+        database = new TempDatabase();
+        persistence = new PersistenceService(database.db());
+        // Only flushed by the benchmark itself
+        buffer = new ProgressBuffer(database.db(), Integer.MAX_VALUE, TimeUnit.HOURS.toMillis(1));
+        UserService users = new UserService(database.db());
+        userId = users.login("bench-learner").getId();
+        users.close();
+        for (int i = 0; i < LESSONS; i++) {
+            persistence.saveProgress(progress(i, 0));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.close();
+        persistence.close();
+        database.close();
+    }
+
+    @Benchmark
+    public boolean bufferProgress() {
+        step++;
+        return persistence.saveProgress(progress(step % LESSONS, step));
+    }
+
+    @Benchmark
+    public void saveProgressFlushed() {
+        step++;
+        buffer.add(new ProgressBuffer.Update(userId, "lesson-" + (step % LESSONS), step, false,
+                System.currentTimeMillis()));
+        buffer.flush();
+    }
+
+    @Benchmark
+    public String getProgress() {
+        return persistence.getProgress(userId);
+    }
+
+    private String progress(int lesson, int currentStep) {
+        return "{\"userId\":\"" + userId + "\",\"lessonId\":\"lesson-" + lesson + "\",\"currentStep\":" + currentStep + ",\"completed\":false}";
+    }
+}
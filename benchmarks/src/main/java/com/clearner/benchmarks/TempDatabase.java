@@ -0,0 +1,41 @@
+package com.clearner.benchmarks;
+
+import com.clearner.services.DatabaseService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A DatabaseService on a throwaway SQLite file, removed again on close.
+ */
+class TempDatabase implements AutoCloseable {
+    private final Path dir;
+    private final DatabaseService db;
+
+    TempDatabase() {
+        try {
+            this.dir = Files.createTempDirectory("clearner-bench");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.db = new DatabaseService(dir.resolve("bench.db").toString());
+    }
+
+    DatabaseService db() {
+        return db;
+    }
+
+    @Override
+    public void close() {
+        db.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.clearner.benchmarks;
+
+import com.clearner.models.User;
+import com.clearner.services.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login for a returning learner and for a first-time learner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    private static final int EXISTING_USERS = 1000;
+
+    private TempDatabase database;
+    private UserService users;
+    private long newUsers;
+
+    @Setup
+    public void setup() {
+        database = new TempDatabase();
+        users = new UserService(database.db());
+        for (int i = 0; i < EXISTING_USERS; i++) {
+            users.login("learner-" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        users.close();
+        database.close();
+    }
+
+    @Benchmark
+    public User loginExisting() {
+        return users.login("learner-" + (newUsers++ % EXISTING_USERS));
+    }
+
+    @Benchmark
+    public User loginNew() {
+        return users.login("new-learner-" + (newUsers++));
+    }
+}
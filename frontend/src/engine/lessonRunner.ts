@@ -1,12 +1,15 @@
 import { computed, ref } from 'vue';
 import type { Lesson } from './types';
 import { EngineState } from './types';
+import { authService, catalogService, eventService } from '../services/api';
+import type { StepEventType } from '../services/api';
 
 export class LessonRunner {
     // Reactive state management
     state = ref<EngineState>(EngineState.INIT);
     currentLesson = ref<Lesson | null>(null);
     currentStepIndex = ref(0);
+    lessonPath = '';
 
     // Task state
     userCode = ref('');
@@ -35,6 +38,7 @@ export class LessonRunner {
 
             // TODO: Validate/Parse lessonData if needed, for now assuming it matches Lesson type
             this.currentLesson.value = lessonData as Lesson;
+            this.lessonPath = lessonId;
 
             this.currentStepIndex.value = 0;
             this.loadProgress(); // Restore progress if any
@@ -53,6 +57,7 @@ export class LessonRunner {
         this.taskFailed.value = false;
         this.failMessage.value = '';
         this.userCode.value = this.currentStep.value.task?.starterCode || '';
+        this.track('step-enter');
 
         // Transition mechanism
         this.state.value = EngineState.EXPLAIN;
@@ -105,7 +110,7 @@ export class LessonRunner {
         }
     }
 
-    checkTask(code: string) {
+    async checkTask(code: string) {
         this.userCode.value = code;
 
         // Reset both states first
@@ -116,25 +121,44 @@ export class LessonRunner {
         const task = this.currentStep.value?.task;
 
         if (!task) return;
-
-        if (task.expected) {
-
-            //check with regex
-            let regex = new RegExp(task.expected);
-            let match = regex.exec(code);
-            if (match) {
-                this.taskCompleted.value = true;
-                this.saveProgress(); // Save on successful task completion too?
-            } else {
-                this.taskFailed.value = true;
-                this.failMessage.value = "Hmm, that's odd";
-            }
+        this.track('run');
+
+        // The backend checks and records the answer; the regex is only a fallback when it is unreachable
+        const stepIndex = this.currentStepIndex.value;
+        const result = await catalogService.checkTask(this.lessonPath, stepIndex, code,
+            authService.getUser().value?.id);
+        if (stepIndex !== this.currentStepIndex.value) return;
+
+        let passed: boolean;
+        let hint: string | null = null;
+        if (result) {
+            passed = result.passed;
+            hint = result.hint;
         } else {
-            // If no expected string, just mark as completed
+            passed = !task.expected || new RegExp(task.expected).test(code);
+        }
+
+        if (passed) {
             this.taskCompleted.value = true;
+            this.saveProgress(); // Save on successful task completion too?
+        } else {
+            this.taskFailed.value = true;
+            this.failMessage.value = hint || "Hmm, that's odd";
         }
     }
 
+    trackPaste() {
+        this.track('paste');
+    }
+
+    // Batched by eventService; task-pass and task-fail are recorded by the server's check
+    private track(type: StepEventType) {
+        const userId = authService.getUser().value?.id;
+        const lessonId = this.currentLesson.value?.id;
+        if (!userId || !lessonId) return;
+        eventService.track(userId, lessonId, this.currentStepIndex.value, type);
+    }
+
     previousStep() {
         if (this.currentStepIndex.value > 0) {
             this.currentStepIndex.value--;
@@ -16,6 +16,16 @@ export interface Progress {
     completed: boolean
 }
 
+export interface LessonSummary {
+    course: string
+    slug: string
+    id: string
+    topic: string
+    title: string
+    stepCount: number
+    hash: string
+}
+
 class AuthService {
     private currentUser = ref<User | null>(null)
 
@@ -31,6 +41,7 @@ class AuthService {
                 const user = await response.json()
                 this.currentUser.value = user
                 localStorage.setItem('clearner_user', JSON.stringify(user))
+                channelService.connect(user.id)
                 return user
             }
         } catch (error) {
@@ -45,6 +56,7 @@ class AuthService {
             try {
                 const user = JSON.parse(stored)
                 this.currentUser.value = user
+                channelService.connect(user.id)
                 return user
             } catch (e) {
                 console.error('Failed to parse stored user:', e)
@@ -60,6 +72,7 @@ class AuthService {
     logout() {
         this.currentUser.value = null
         localStorage.removeItem('clearner_user')
+        channelService.disconnect()
     }
 }
 
@@ -69,6 +82,7 @@ class ProgressService {
             console.error('Cannot save progress: userId is missing or null')
             return
         }
+        if (await channelService.request({ type: 'progress', lessonId, currentStep, completed }) === 'ack') return
 
         try {
             const response = await fetch(`${API_BASE}/progress`, {
@@ -99,6 +113,7 @@ class ProgressService {
     }
 
     async logPaste(userId: string, lessonId: string, stepIndex: number) {
+        if (await channelService.request({ type: 'paste', lessonId, stepIndex }) === 'ack') return
         try {
             await fetch(`${API_BASE}/log/paste`, {
                 method: 'POST',
@@ -111,5 +126,248 @@ class ProgressService {
     }
 }
 
+export type StepEventType = 'paste' | 'run' | 'task-pass' | 'task-fail' | 'step-enter'
+
+export interface TaskCheck {
+    passed: boolean
+    hint: string | null
+}
+
+export interface StepEvent {
+    userId: string
+    lessonId: string
+    stepIndex: number
+    type: StepEventType
+    createdAt: number
+}
+
+class CatalogService {
+    async getLessons(): Promise<LessonSummary[]> {
+        return this.fetchList(`${API_BASE}/lessons`)
+    }
+
+    async getCourse(course: string): Promise<LessonSummary[]> {
+        return this.fetchList(`${API_BASE}/courses/${course}`)
+    }
+
+    /**
+     * Subscribe to lesson reloads pushed while the backend runs in content mode.
+     * lesson is null when a lesson file was removed. Returns an unsubscribe function.
+     */
+    onLessonChanged(handler: (change: { course: string, slug: string, lesson: LessonSummary | null }) => void) {
+        const source = new EventSource(`${API_BASE}/content/events`)
+        source.addEventListener('lesson-changed', (event) => {
+            handler(JSON.parse((event as MessageEvent).data))
+        })
+        return () => source.close()
+    }
+
+    /**
+     * Check a task answer on the backend. lessonPath is "{course}/{slug}".
+     * Returns null when the backend cannot be reached, so the caller can check locally.
+     */
+    async checkTask(lessonPath: string, stepIndex: number, code: string, userId?: string): Promise<TaskCheck | null> {
+        try {
+            const response = await fetch(`${API_BASE}/lessons/${lessonPath}/steps/${stepIndex}/check`, {
+                method: 'POST',
+                headers: { 'Content-Type': 'application/json' },
+                body: JSON.stringify({ userId, code })
+            })
+            if (response.ok) {
+                return await response.json()
+            }
+        } catch (error) {
+            console.error('Failed to check task:', error)
+        }
+        return null
+    }
+
+    private async fetchList(url: string): Promise<LessonSummary[]> {
+        try {
+            const response = await fetch(url)
+            if (response.ok) {
+                return await response.json()
+            }
+        } catch (error) {
+            console.error('Failed to fetch lesson catalog:', error)
+        }
+        return []
+    }
+}
+
+type ChannelHandler = (data: any) => void
+
+/**
+ * One WebSocket per learner for progress, pastes and step events, with acks
+ * and server pushes (sync status, lesson reloads, notifications) coming back
+ * on the same connection. request() resolves to 'closed' when the socket is
+ * down, closes or stays silent before the ack, so callers fall back to the
+ * REST routes instead of losing the frame.
+ */
+class ChannelService {
+    private socket: WebSocket | null = null
+    private userId: string | null = null
+    private nextId = 1
+    private retryDelayMs = 1000
+    private readonly ackTimeoutMs = 10000
+    private heartbeat: ReturnType<typeof setInterval> | null = null
+    private handlers = new Map<string, ChannelHandler[]>()
+    private pending = new Map<number, (outcome: string) => void>()
+
+    connect(userId: string) {
+        if (this.userId === userId && this.socket) return
+        this.disconnect()
+        this.userId = userId
+        this.open()
+    }
+
+    disconnect() {
+        this.userId = null
+        if (this.heartbeat) clearInterval(this.heartbeat)
+        this.heartbeat = null
+        this.socket?.close()
+        this.socket = null
+        this.settlePending()
+    }
+
+    /** Returns the frame id, or 0 if the socket is not open. */
+    send(frame: Record<string, unknown>): number {
+        if (!this.socket || this.socket.readyState !== WebSocket.OPEN) return 0
+        const id = this.nextId++
+        this.socket.send(JSON.stringify({ ...frame, id }))
+        return id
+    }
+
+    /**
+     * Send a frame and wait for the server's answer: 'ack', the nack reason,
+     * or 'closed' if the frame may not have arrived.
+     */
+    request(frame: Record<string, unknown>): Promise<string> {
+        const id = this.send(frame)
+        if (!id) return Promise.resolve('closed')
+        return new Promise((resolve) => {
+            const timer = setTimeout(() => this.settle(id, 'closed'), this.ackTimeoutMs)
+            this.pending.set(id, (outcome) => {
+                clearTimeout(timer)
+                resolve(outcome)
+            })
+        })
+    }
+
+    /** Listen for a pushed frame type: 'sync', 'lesson-changed', 'notification', 'ack', 'nack'. */
+    on(type: string, handler: ChannelHandler) {
+        const list = this.handlers.get(type) ?? []
+        list.push(handler)
+        this.handlers.set(type, list)
+    }
+
+    private open() {
+        const userId = this.userId
+        if (!userId) return
+
+        const socket = new WebSocket(`${API_BASE.replace(/^http/, 'ws').replace(/\/api$/, '')}/ws?userId=${encodeURIComponent(userId)}`)
+        this.socket = socket
+        socket.onopen = () => {
+            this.retryDelayMs = 1000
+            this.heartbeat = setInterval(() => this.send({ type: 'ping' }), 30000)
+        }
+        socket.onmessage = (event) => {
+            const frame = JSON.parse(event.data)
+            if (frame.type === 'nack') console.warn('Channel rejected frame:', frame)
+            if (frame.type === 'ack' || frame.type === 'nack') {
+                this.settle(frame.id, frame.type === 'ack' ? 'ack' : frame.reason ?? 'nack')
+            }
+            for (const handler of this.handlers.get(frame.type) ?? []) {
+                handler(frame.data ?? frame)
+            }
+        }
+        socket.onclose = () => {
+            if (this.heartbeat) clearInterval(this.heartbeat)
+            this.heartbeat = null
+            if (this.socket !== socket || !this.userId) return
+            this.socket = null
+            // Frames still waiting for an ack may never have reached the server
+            this.settlePending()
+            setTimeout(() => this.open(), this.retryDelayMs)
+            this.retryDelayMs = Math.min(this.retryDelayMs * 2, 30000)
+        }
+    }
+
+    private settle(id: number, outcome: string) {
+        const resolve = this.pending.get(id)
+        if (!resolve) return
+        this.pending.delete(id)
+        resolve(outcome)
+    }
+
+    private settlePending() {
+        for (const id of [...this.pending.keys()]) {
+            this.settle(id, 'closed')
+        }
+    }
+}
+
+class EventService {
+    private queue: StepEvent[] = []
+    private timer: ReturnType<typeof setTimeout> | null = null
+    private readonly flushDelayMs = 2000
+    private readonly maxBatch = 100
+
+    track(userId: string, lessonId: string, stepIndex: number, type: StepEventType) {
+        if (!userId) return
+        this.queue.push({ userId, lessonId, stepIndex, type, createdAt: Date.now() })
+
+        if (this.queue.length >= this.maxBatch) {
+            this.flush()
+        } else if (!this.timer) {
+            this.timer = setTimeout(() => this.flush(), this.flushDelayMs)
+        }
+    }
+
+    async flush() {
+        if (this.timer) {
+            clearTimeout(this.timer)
+            this.timer = null
+        }
+        if (this.queue.length === 0) return
+
+        const batch = this.queue
+        this.queue = []
+        const outcome = await channelService.request({ type: 'events', events: batch })
+        if (outcome === 'queue-full') {
+            // Same as a 429 on the REST route
+            this.retryLater(batch)
+            return
+        }
+        // A batch the server rejected would be rejected over REST too; only resend one that may not have arrived
+        if (outcome !== 'closed') return
+        try {
+            const response = await fetch(`${API_BASE}/events`, {
+                method: 'POST',
+                headers: { 'Content-Type': 'application/json' },
+                body: JSON.stringify(batch),
+                keepalive: true
+            })
+            if (response.status === 429) {
+                // Server is shedding load
+                this.retryLater(batch)
+            }
+        } catch (error) {
+            console.error('Failed to send events:', error)
+        }
+    }
+
+    /** Keep the events for the next flush. */
+    private retryLater(batch: StepEvent[]) {
+        this.queue = batch.concat(this.queue)
+        if (!this.timer) this.timer = setTimeout(() => this.flush(), this.flushDelayMs)
+    }
+}
+
+export const channelService = new ChannelService()
 export const authService = new AuthService()
 export const progressService = new ProgressService()
+export const eventService = new EventService()
+export const catalogService = new CatalogService()
+
+window.addEventListener('pagehide', () => eventService.flush())